@@ -0,0 +1,118 @@
+package edu.purdue.dsnl.configprof;
+
+import edu.purdue.dsnl.configprof.adaptor.AppAdaptor;
+import lombok.Cleanup;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Build artifacts keyed by the content they are built from, evicted least recently used first once their total size
+ * exceeds the limit.
+ */
+@Log4j2
+class BuildCache {
+	private static final Path CACHE_DIR = AppAdaptor.BUILD_DIR.resolve("cache");
+
+	private final AppAdaptor appAdaptor;
+
+	private final long maxBytes;
+
+	BuildCache(AppAdaptor appAdaptor, long maxBytes) throws IOException {
+		this.appAdaptor = appAdaptor;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(CACHE_DIR);
+	}
+
+	/**
+	 * Restores the artifact of {@code key} as the build of {@code tag}.
+	 *
+	 * @return whether the artifact is cached
+	 */
+	synchronized boolean fetch(String key, String tag) throws IOException {
+		var entry = CACHE_DIR.resolve(key);
+		if (!Files.exists(entry)) {
+			return false;
+		}
+		copy(entry, appAdaptor.getPath(tag));
+		Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+		log.info("Build cache hit {} for {}", key, tag);
+		return true;
+	}
+
+	synchronized void store(String key, String tag) throws IOException {
+		var entry = CACHE_DIR.resolve(key);
+		if (Files.exists(entry)) {
+			return;
+		}
+		copy(appAdaptor.getPath(tag), entry);
+		Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+		evict();
+	}
+
+	private void evict() throws IOException {
+		@Cleanup var files = Files.list(CACHE_DIR);
+		var entries = files.sorted(Comparator.comparing(BuildCache::lastModified).reversed())
+				.collect(Collectors.toList());
+		long size = 0;
+		for (var e : entries) {
+			size += FileUtils.sizeOf(e.toFile());
+			if (size > maxBytes) {
+				log.info("Evicts {} from build cache", e);
+				FileUtils.forceDelete(e.toFile());
+			}
+		}
+	}
+
+	private static FileTime lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Hard links file artifacts where possible, as neither the cache nor the adaptors modify them in place. Directory
+	 * artifacts are copied, as apps may write into them when they run.
+	 */
+	private static void copy(Path from, Path to) throws IOException {
+		if (Files.isDirectory(from)) {
+			FileUtils.copyDirectory(from.toFile(), to.toFile());
+		} else {
+			try {
+				Files.deleteIfExists(to);
+				Files.createLink(to, from);
+			} catch (IOException | UnsupportedOperationException e) {
+				Files.copy(from, to);
+			}
+		}
+	}
+
+	static String computeKey(String sourceKey, List<Path> buildInputs, Path project, List<Path> modifiedFiles)
+			throws IOException {
+		var digest = Digests.create();
+		digest.update(sourceKey.getBytes(StandardCharsets.UTF_8));
+		for (var f : buildInputs) {
+			if (Files.isRegularFile(f)) {
+				digest.update(Digests.hash(f).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		var root = project.toAbsolutePath().normalize();
+		for (var f : modifiedFiles) {
+			digest.update(root.relativize(f.toAbsolutePath().normalize()).toString().getBytes(StandardCharsets.UTF_8));
+			digest.update(Digests.hash(f).getBytes(StandardCharsets.UTF_8));
+		}
+		return Digests.toHex(digest.digest());
+	}
+}
@@ -0,0 +1,177 @@
+package edu.purdue.dsnl.configprof;
+
+import edu.purdue.dsnl.configprof.adaptor.AppAdaptor;
+import edu.purdue.dsnl.configprof.mutator.BytecodeMutator;
+import edu.purdue.dsnl.configprof.mutator.MutationIterator;
+import edu.purdue.dsnl.configprof.mutator.Mutator;
+import edu.purdue.dsnl.configprof.mutator.MutatorFactory;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A project copy with its own mutator, so that builds in different slots can run concurrently.
+ */
+@Log4j2
+class BuildSlot {
+	@Getter
+	private final Path project;
+
+	@Getter
+	private final Mutator mutator;
+
+	private final AppAdaptor appAdaptor;
+
+	private final BuildCache cache;
+
+	private String sourceKey;
+
+	private final BytecodeMutator bytecodeMutator;
+
+	private boolean incremental = TestState.isIncrementalBuild();
+
+	private IncrementalCompiler compiler;
+
+	/**
+	 * Output of compiling each source file before mutation, null if it does not compile alone.
+	 */
+	private final Map<Path, IncrementalCompiler.Output> originalOutputs = new HashMap<>();
+
+	/**
+	 * @param cache shared by all slots, or null to always build
+	 * @param bytecodeMutator shared by all slots, or null to only mutate the source files
+	 */
+	BuildSlot(String project, List<String> sources, AppAdaptor appAdaptor, BuildCache cache,
+			BytecodeMutator bytecodeMutator) throws IOException {
+		this.project = Path.of(project);
+		mutator = MutatorFactory.createMutator(TestState.getLiteralType(), this.project, sources);
+		this.appAdaptor = appAdaptor;
+		this.cache = cache;
+		this.bytecodeMutator = bytecodeMutator;
+		if (cache != null) {
+			sourceKey = computeSourceKey(sources);
+		}
+	}
+
+	/**
+	 * Hashes the unmodified sources by their paths relative to the project, so that copies of the project share the
+	 * key.
+	 */
+	private String computeSourceKey(List<String> sources) throws IOException {
+		var root = project.toAbsolutePath().normalize();
+		var digest = Digests.create();
+		for (var s : sources) {
+			Digests.updateJavaSources(digest, Path.of(s).toAbsolutePath().normalize(), root);
+		}
+		return Digests.toHex(digest.digest());
+	}
+
+	void build(List<String> paths, List<String> mutations, String tag)
+			throws Mutator.InvalidPathException, AppAdaptor.BuildException, IOException {
+		if (bytecodeMutator != null && !paths.isEmpty()) {
+			var classes = bytecodeMutator.mutate(paths, mutations);
+			if (classes != null && appAdaptor.patch(ProjectBuilder.REF_TAG, tag, classes)) {
+				log.info("Patched {} with mutated {}", tag, classes.keySet());
+				return;
+			}
+		}
+
+		var iterators = new ArrayList<MutationIterator>();
+		try {
+			for (int i = 0; i < paths.size(); i++) {
+				var iterator = mutator.getMutations(paths.get(i), List.of(mutations.get(i)));
+				iterators.add(iterator);
+				iterator.next();
+			}
+			mutator.commit();
+			String key = null;
+			if (cache != null) {
+				key = BuildCache.computeKey(sourceKey, appAdaptor.getBuildInputs(project), project,
+						mutator.getModifiedFiles());
+				if (cache.fetch(key, tag)) {
+					return;
+				}
+			}
+			if (!buildIncrementally(tag)) {
+				log.info("Builds {} in {}", tag, project);
+				appAdaptor.build(project, tag);
+			}
+			if (key != null) {
+				cache.store(key, tag);
+			}
+		} finally {
+			for (var m : iterators) {
+				m.close();
+			}
+		}
+	}
+
+	/**
+	 * Compiles the modified source files against the reference build, and patches the classes that differ from those
+	 * of the original source files into a copy of it.
+	 *
+	 * @return false if a full build is needed instead
+	 */
+	private boolean buildIncrementally(String tag) throws IOException {
+		var modified = mutator.getModifiedFiles();
+		if (!incremental || modified.isEmpty()) {
+			return false;
+		}
+		if (compiler == null) {
+			var classpath = appAdaptor.getClasspath(ProjectBuilder.REF_TAG);
+			if (classpath == null) {
+				log.warn("Incremental builds not supported");
+				incremental = false;
+				return false;
+			}
+			compiler = new IncrementalCompiler(classpath, TestState.getIncrementalRelease());
+		}
+
+		var originalClasses = new HashMap<String, byte[]>();
+		var originalConstants = new HashMap<String, Object>();
+		for (var f : modified) {
+			if (!originalOutputs.containsKey(f)) {
+				originalOutputs.put(f, compiler.compile(Map.of(f, mutator.getOriginal(f))));
+			}
+			var output = originalOutputs.get(f);
+			if (output == null) {
+				log.info("{} does not compile alone, builds {} in full", f, tag);
+				return false;
+			}
+			originalClasses.putAll(output.getClasses());
+			originalConstants.putAll(output.getConstants());
+		}
+
+		var sources = new HashMap<Path, String>();
+		for (var f : modified) {
+			sources.put(f, Files.readString(f));
+		}
+		var output = compiler.compile(sources);
+		if (output == null) {
+			return false;
+		}
+		if (!output.getConstants().equals(originalConstants)) {
+			log.info("{} changes constants that other classes may have inlined, builds in full", tag);
+			return false;
+		}
+		var classes = output.getClasses().entrySet().stream()
+				.filter(e -> !Arrays.equals(e.getValue(), originalClasses.get(e.getKey())))
+				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+		if (!appAdaptor.patch(ProjectBuilder.REF_TAG, tag, classes)) {
+			log.warn("Patching builds not supported");
+			incremental = false;
+			return false;
+		}
+		log.info("Patched {} with {}", tag, classes.keySet());
+		return true;
+	}
+}
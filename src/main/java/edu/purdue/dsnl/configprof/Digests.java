@@ -0,0 +1,75 @@
+package edu.purdue.dsnl.configprof;
+
+import lombok.Cleanup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class Digests {
+	private Digests() {}
+
+	public static MessageDigest create() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] digest) {
+		return String.format("%0" + digest.length * 2 + "x", new BigInteger(1, digest));
+	}
+
+	public static String hash(Path file) throws IOException {
+		var digest = create();
+		try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		return toHex(digest.digest());
+	}
+
+	public static String hash(String content) {
+		return toHex(create().digest(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Feeds the paths relative to {@code root} and the hashes of the Java sources under {@code dir} to {@code digest},
+	 * in path order.
+	 */
+	public static void updateJavaSources(MessageDigest digest, Path dir, Path root) throws IOException {
+		@Cleanup var files = Files.walk(dir);
+		for (var f : files.filter(f -> f.toString().endsWith(".java")).sorted().collect(Collectors.toList())) {
+			digest.update(root.relativize(f).toString().getBytes(StandardCharsets.UTF_8));
+			digest.update(hash(f).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Feeds the names and content of the matching entries of a ZIP file to {@code digest}, in name order, so that the
+	 * result does not depend on entry timestamps or the order the entries are stored in.
+	 */
+	public static void updateZipEntries(MessageDigest digest, Path zip, Predicate<String> filter) throws IOException {
+		@Cleanup var zipFile = new ZipFile(zip.toFile());
+		var entries = zipFile.stream().filter(e -> !e.isDirectory() && filter.test(e.getName()))
+				.sorted(Comparator.comparing(ZipEntry::getName)).collect(Collectors.toList());
+		for (var e : entries) {
+			digest.update(e.getName().getBytes(StandardCharsets.UTF_8));
+			try (InputStream in = new DigestInputStream(zipFile.getInputStream(e), digest)) {
+				in.transferTo(OutputStream.nullOutputStream());
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package edu.purdue.dsnl.configprof;
+
+import com.sun.source.util.JavacTask;
+import lombok.Cleanup;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Compiles a few source files in memory against the classpath of a prebuilt artifact.
+ */
+@Log4j2
+class IncrementalCompiler {
+	private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+	private final List<String> options;
+
+	@Value
+	static class Output {
+		/**
+		 * Class files by their names in a jar, e.g. {@code org/example/Foo$1.class}.
+		 */
+		Map<String, byte[]> classes;
+
+		/**
+		 * Values of the non-private compile-time constants by field name, which other classes may have inlined.
+		 */
+		Map<String, Object> constants;
+	}
+
+	IncrementalCompiler(List<Path> classpath, int release) throws IOException {
+		if (compiler == null) {
+			throw new IOException("No Java compiler, run with a JDK");
+		}
+		options = List.of("--release", String.valueOf(release), "-proc:none", "-implicit:none", "-g", "-nowarn",
+				"-classpath", classpath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator)));
+	}
+
+	/**
+	 * @param sources content of the source files
+	 * @return null if the sources do not compile
+	 */
+	Output compile(Map<Path, String> sources) throws IOException {
+		var diagnostics = new DiagnosticCollector<JavaFileObject>();
+		@Cleanup var fileManager = new MemoryFileManager(
+				compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8));
+		var units = sources.entrySet().stream().map(e -> new SourceObject(e.getKey(), e.getValue()))
+				.collect(Collectors.toList());
+		var task = (JavacTask) compiler.getTask(null, fileManager, diagnostics, options, null, units);
+
+		var constants = new HashMap<String, Object>();
+		for (var t : ElementFilter.typesIn(task.analyze())) {
+			collectConstants(t, constants);
+		}
+		if (hasErrors(diagnostics)) {
+			log.debug("Compile errors {}", diagnostics.getDiagnostics());
+			return null;
+		}
+		task.generate();
+		if (hasErrors(diagnostics)) {
+			log.debug("Compile errors {}", diagnostics.getDiagnostics());
+			return null;
+		}
+		return new Output(fileManager.classes, constants);
+	}
+
+	private static boolean hasErrors(DiagnosticCollector<JavaFileObject> diagnostics) {
+		return diagnostics.getDiagnostics().stream().anyMatch(d -> d.getKind() == Diagnostic.Kind.ERROR);
+	}
+
+	private static void collectConstants(TypeElement type, Map<String, Object> constants) {
+		for (var f : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			if (f.getConstantValue() != null && !f.getModifiers().contains(Modifier.PRIVATE)) {
+				constants.put(type.getQualifiedName() + "." + f.getSimpleName(), f.getConstantValue());
+			}
+		}
+		for (var t : ElementFilter.typesIn(type.getEnclosedElements())) {
+			collectConstants(t, constants);
+		}
+	}
+
+	private static class SourceObject extends SimpleJavaFileObject {
+		private final String content;
+
+		SourceObject(Path file, String content) {
+			super(file.toUri(), Kind.SOURCE);
+			this.content = content;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return content;
+		}
+	}
+
+	private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+		final Map<String, byte[]> classes = new HashMap<>();
+
+		MemoryFileManager(StandardJavaFileManager fileManager) {
+			super(fileManager);
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+				JavaFileObject.Kind kind, FileObject sibling) {
+			var name = className.replace('.', '/') + kind.extension;
+			return new SimpleJavaFileObject(URI.create("mem:///" + name), kind) {
+				@Override
+				public OutputStream openOutputStream() {
+					return new ByteArrayOutputStream() {
+						@Override
+						public void close() {
+							classes.put(name, toByteArray());
+						}
+					};
+				}
+			};
+		}
+	}
+}
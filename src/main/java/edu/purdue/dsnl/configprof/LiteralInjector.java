@@ -0,0 +1,132 @@
+package edu.purdue.dsnl.configprof;
+
+import edu.purdue.dsnl.configprof.mutator.MutationPlan;
+import lombok.Cleanup;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites the literals under test into lookups of their override values, so that one build serves every mutation.
+ * The lookups go through a generated holder class, {@code configprof.Literals}.
+ */
+@Log4j2
+class LiteralInjector {
+	private static final String HOLDER = "configprof.Literals";
+
+	private static final Path HOLDER_FILE = Path.of("configprof", "Literals.java");
+
+	private final Path project;
+
+	private final Path holderFile;
+
+	private final String overrideLocation;
+
+	private final Map<Path, String> originals = new HashMap<>();
+
+	/**
+	 * @param sourceDir where the holder class is generated
+	 * @param overrideLocation default path of the override file, as seen by the app
+	 */
+	LiteralInjector(Path project, Path sourceDir, String overrideLocation) {
+		this.project = project;
+		holderFile = sourceDir.resolve(HOLDER_FILE);
+		this.overrideLocation = overrideLocation;
+	}
+
+	/**
+	 * Literals in constant contexts are left to source mutation, since a lookup there does not compile.
+	 *
+	 * @param paths literal paths by their indices, which key the override values
+	 * @param values values each literal is going to be tested with
+	 * @return the indices of the literals injected
+	 */
+	Set<Integer> instrument(Map<Integer, String> paths, Map<Integer, List<String>> values) throws IOException {
+		var plan = MutationPlan.load();
+		var edits = new HashMap<Path, List<Map.Entry<Integer, MutationPlan.Entry>>>();
+		var injected = new HashSet<Integer>();
+		for (var p : paths.entrySet()) {
+			var entry = plan.get(p.getValue());
+			if (entry == null) {
+				throw new IOException("No plan for " + p.getValue() + ", run init again");
+			}
+			if (entry.isConstant()) {
+				log.info("Not injecting {} in a constant context", p.getValue());
+				continue;
+			}
+			injected.add(p.getKey());
+			var file = project.resolve(entry.getFile());
+			edits.computeIfAbsent(file, f -> new ArrayList<>()).add(Map.entry(p.getKey(), entry));
+		}
+
+		for (var e : edits.entrySet()) {
+			var file = e.getKey();
+			var original = Files.readString(file);
+			if (!Digests.hash(file).equals(e.getValue().get(0).getValue().getHash())) {
+				throw new IOException(file + " changed since init, run init again");
+			}
+			var builder = new StringBuilder(original);
+			var sorted = e.getValue().stream().sorted(Comparator.comparing(
+					(Map.Entry<Integer, MutationPlan.Entry> r) -> r.getValue().getStart()).reversed())
+					.collect(Collectors.toList());
+			for (var r : sorted) {
+				var entry = r.getValue();
+				var text = original.substring(entry.getStart(), entry.getEnd() + 1);
+				var expression = toExpression(r.getKey(), entry, text, values.getOrDefault(r.getKey(), List.of()));
+				builder.replace(entry.getStart(), entry.getEnd() + 1, expression);
+			}
+			originals.put(file, original);
+			Files.writeString(file, builder.toString());
+		}
+
+		@Cleanup var template = Objects.requireNonNull(getClass().getResourceAsStream("/Literals.java.template"));
+		var holder = new String(template.readAllBytes(), StandardCharsets.UTF_8)
+				.replace("${OVERRIDE_FILE}", overrideLocation);
+		Files.createDirectories(holderFile.getParent());
+		Files.writeString(holderFile, holder);
+		log.info("Injected {} literals in {} files", injected.size(), edits.size());
+		return injected;
+	}
+
+	void restore() throws IOException {
+		for (var e : originals.entrySet()) {
+			Files.writeString(e.getKey(), e.getValue());
+		}
+		originals.clear();
+		Files.deleteIfExists(holderFile);
+	}
+
+	/**
+	 * @param original source text of the literal, as the plan keeps floating-point values rounded
+	 */
+	private static String toExpression(int idx, MutationPlan.Entry entry, String original, List<String> values)
+			throws IOException {
+		return switch (entry.getKind()) {
+			case "Integer" -> String.format("%s.getInt(%d, %s)", HOLDER, idx, original);
+			case "Short" -> String.format("%s.getShort(%d, (short) %s)", HOLDER, idx, original);
+			case "Byte" -> String.format("%s.getByte(%d, (byte) %s)", HOLDER, idx, original);
+			case "Long" -> String.format("%s.getLong(%d, %s)", HOLDER, idx, original);
+			case "Float" -> String.format("%s.getFloat(%d, %s)", HOLDER, idx, original);
+			case "Double" -> String.format("%s.getDouble(%d, %s)", HOLDER, idx, original);
+			case "Boolean" -> String.format("%s.getBoolean(%d, %s)", HOLDER, idx, original);
+			case "Enum" -> {
+				var alternatives = values.stream().map(v -> String.format(", \"%s\", %s", v, v))
+						.collect(Collectors.joining());
+				yield String.format("%s.choose(%d, %s%s)", HOLDER, idx, original, alternatives);
+			}
+			default -> throw new IOException("Cannot inject " + entry.getKind() + " literal " + entry.getPath());
+		};
+	}
+}
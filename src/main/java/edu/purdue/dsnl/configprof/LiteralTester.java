@@ -1,8 +1,15 @@
 package edu.purdue.dsnl.configprof;
 
-import edu.purdue.dsnl.configprof.adaptor.AndroidAdaptor;
+import edu.purdue.dsnl.configprof.adaptor.AdaptorFactory;
+import edu.purdue.dsnl.configprof.adaptor.AppAdaptor;
+import edu.purdue.dsnl.configprof.adaptor.InjectionAdaptor;
 import edu.purdue.dsnl.configprof.filter.CoverageProcessor;
 import edu.purdue.dsnl.configprof.filter.ProcessorFactory;
+import edu.purdue.dsnl.configprof.mutator.AbstractMutator;
+import edu.purdue.dsnl.configprof.mutator.MutationPlan;
+import edu.purdue.dsnl.configprof.mutator.Mutator;
+import edu.purdue.dsnl.configprof.mutator.MutatorFactory;
+import edu.purdue.dsnl.configprof.result.ResultExporter;
 import edu.purdue.dsnl.configprof.rpc.BuildWorker;
 import edu.purdue.dsnl.configprof.serialize.BookmarkSerializer;
 import edu.purdue.dsnl.configprof.serialize.CsvSerializer;
@@ -19,13 +26,17 @@ import spoon.Launcher;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
 @Log4j2
 @Command
 class LiteralTester implements Runnable {
+	private static final String SLOT_DIR_PREFIX = "slot-";
+
 	@CommandLine.Spec
 	private CommandLine.Model.CommandSpec spec;
 
@@ -41,26 +52,23 @@ class LiteralTester implements Runnable {
 		return more.stream().map(p -> Path.of(first, p).toString()).collect(Collectors.toList());
 	}
 
-	private Launcher createLauncher(List<String> sources) {
-		var launcher = new Launcher();
-		for (var s : sources) {
-			launcher.addInputResource(s);
-		}
-		return launcher;
-	}
-
 	@SneakyThrows(InterruptedException.class)
-	private String copyProject(String path) throws IOException {
-		Runtime.getRuntime().exec(new String[]{"rsync", "-a", path, "."}).waitFor();
-		return Path.of(path).getFileName().toString();
+	private String copyProject(String path, Path dest) throws IOException {
+		Files.createDirectories(dest);
+		Runtime.getRuntime().exec(new String[]{"rsync", "-a", path, dest.toString()}).waitFor();
+		return dest.resolve(Path.of(path).getFileName()).normalize().toString();
 	}
 
-	private Pair<String, List<String>> copyProject(Pair<String, List<String>> original) throws IOException {
-		var newPath = copyProject(original.getLeft());
+	private Pair<String, List<String>> copyProject(Pair<String, List<String>> original, Path dest) throws IOException {
+		var newPath = copyProject(original.getLeft(), dest);
 		var sources = catPaths(newPath, original.getRight());
 		return Pair.of(newPath, sources);
 	}
 
+	private Pair<String, List<String>> copyProject(Pair<String, List<String>> original) throws IOException {
+		return copyProject(original, Path.of("."));
+	}
+
 	@Command
 	private void init(@Parameters(index = "0") String project, @Parameters(index = "1..*") List<String> sources,
 			@Option(names = {"-t", "--type"}, defaultValue = "NUM") LiteralType type,
@@ -69,9 +77,11 @@ class LiteralTester implements Runnable {
 			@Option(names = {"-c", "--csv"}) Path csv) throws IOException {
 		TestState.initConf(project, sources, type);
 		TestState.saveTestCounter(0);
+		RunLedger.reset();
 
 		var sourcePaths = catPaths(project, sources);
-		var launcher = createLauncher(sourcePaths);
+		var factory = ModelCache.load(sourcePaths);
+		var launcher = new Launcher(factory);
 		var processor = ProcessorFactory.createProcessor(type, sourcePaths);
 		launcher.addProcessor(processor);
 
@@ -89,25 +99,82 @@ class LiteralTester implements Runnable {
 			processor.addSerializer(new CsvSerializer(csv));
 		}
 
-		launcher.run();
+		launcher.process();
+		savePlan(MutatorFactory.createMutator(type, Path.of(project), factory.getModel()));
+	}
+
+	private void savePlan(AbstractMutator mutator) throws IOException {
+		var plan = new ArrayList<MutationPlan.Entry>();
+		for (var p : TestState.getLiteralPaths()) {
+			try {
+				plan.add(mutator.plan(p));
+			} catch (Mutator.InvalidPathException e) {
+				log.warn("Cannot plan {}", p, e);
+			}
+		}
+		MutationPlan.save(plan);
 	}
 
 	@Command
 	private void test() throws IOException {
 		TestState.loadConf();
-		var paths = copyProject(TestState.getProjectPaths());
-		var appAdaptor = new AndroidAdaptor();
-		var projectBuilder = new ProjectBuilder(paths.getLeft(), paths.getRight(), appAdaptor);
-		@Cleanup var driver = new TestDriver(projectBuilder, appAdaptor);
+		var workspaces = new ArrayList<Pair<String, List<String>>>();
+		workspaces.add(copyProject(TestState.getProjectPaths()));
+		for (int i = 1; i < TestState.getBuildSlots(); i++) {
+			workspaces.add(copyProject(TestState.getProjectPaths(), Path.of(SLOT_DIR_PREFIX + i)));
+		}
+		var appAdaptors = AdaptorFactory.createPool();
+		if (TestState.isInjection()) {
+			var injectionAdaptor = new InjectionAdaptor(appAdaptors.get(0), ProjectBuilder.REF_TAG);
+			appAdaptors = appAdaptors.stream().map(a -> (AppAdaptor) injectionAdaptor.forDevice(a))
+					.collect(Collectors.toList());
+			appAdaptors.set(0, injectionAdaptor);
+		}
+		@Cleanup var ledger = RunLedger.open(TestState.getTestCounter());
+		var projectBuilder = new ProjectBuilder(workspaces, appAdaptors.get(0), ledger);
+		@Cleanup var driver = new TestDriver(projectBuilder, appAdaptors, ledger);
 		log.info("Test starts");
 		driver.run();
 	}
 
+	/**
+	 * Converts a binary result store to JSON, next to it by default, or to CSV.
+	 */
+	@Command
+	private void export(@Parameters(index = "0") Path store, @Option(names = {"-j", "--json"}) Path json,
+			@Option(names = {"-c", "--csv"}) Path csv) throws IOException {
+		if (json == null && csv == null) {
+			json = store.resolveSibling(store.getFileName().toString().replaceFirst("\\.bin$", "") + ".json");
+		}
+		if (json != null) {
+			ResultExporter.toJson(store, json);
+		}
+		if (csv != null) {
+			ResultExporter.toCsv(store, csv);
+		}
+	}
+
+	/**
+	 * Ranks the mutations by how significantly and how much they change each metric from the reference.
+	 */
+	@Command
+	private void analyze(@Option(names = {"-r", "--ref"}, defaultValue = "ref-results.json") Path ref,
+			@Option(names = {"-m", "--mut"}, defaultValue = "mut-results.json") Path mut,
+			@Option(names = {"-o", "--output"}, defaultValue = "analysis.csv") Path output,
+			@Option(names = {"-a", "--alpha"}, defaultValue = "0.05") double alpha,
+			@Option(names = {"-j", "--threads"}, defaultValue = "0") int threads,
+			@Option(names = {"-n", "--top"}, defaultValue = "20") int top) throws IOException, InterruptedException {
+		var analyzer = new ResultAnalyzer(alpha, threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+		var rows = analyzer.analyze(ref, mut);
+		analyzer.writeCsv(rows, output);
+		analyzer.print(rows, top, System.out);
+	}
+
 	@Command
 	private void worker(@Parameters(index = "0") int port) throws IOException, InterruptedException {
 		TestState.loadConf();
 		var paths = copyProject(TestState.getProjectPaths());
-		var appAdaptor = new AndroidAdaptor();
+		var appAdaptor = AdaptorFactory.createAdaptor();
 		log.info("Worker starts");
 		ServerBuilder.forPort(port)
 				.addService(new BuildWorker(paths.getLeft(), paths.getRight(), appAdaptor))
@@ -0,0 +1,100 @@
+package edu.purdue.dsnl.configprof;
+
+import lombok.Cleanup;
+import lombok.extern.log4j.Log4j2;
+import spoon.Launcher;
+import spoon.reflect.factory.Factory;
+import spoon.support.SerializationModelStreamer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Snapshots of Spoon models, keyed by the hashes of the Java files under the source directories. A snapshot is
+ * reused as long as no source file is added, removed or changed.
+ */
+@Log4j2
+public class ModelCache {
+	private static final Path CACHE_DIR = Path.of("model-cache");
+
+	private static final String SUFFIX = ".ser";
+
+	private static final int MAX_SNAPSHOTS = 4;
+
+	private ModelCache() {}
+
+	public static Factory load(List<String> sources) throws IOException {
+		var snapshot = CACHE_DIR.resolve(computeKey(sources) + SUFFIX);
+		if (Files.exists(snapshot)) {
+			try {
+				@Cleanup var in = Files.newInputStream(snapshot);
+				var factory = new SerializationModelStreamer().load(in);
+				Files.setLastModifiedTime(snapshot, FileTime.from(Instant.now()));
+				log.info("Model loaded from {}", snapshot);
+				return factory;
+			} catch (IOException | RuntimeException e) {
+				log.warn("Cannot load model snapshot {}", snapshot, e);
+			}
+		}
+
+		var launcher = new Launcher();
+		sources.forEach(launcher::addInputResource);
+		launcher.buildModel();
+		save(launcher.getFactory(), snapshot);
+		return launcher.getFactory();
+	}
+
+	private static void save(Factory factory, Path snapshot) {
+		try {
+			Files.createDirectories(CACHE_DIR);
+			var tmp = Files.createTempFile(CACHE_DIR, null, null);
+			try (var out = Files.newOutputStream(tmp)) {
+				new SerializationModelStreamer().save(factory, out);
+			}
+			Files.move(tmp, snapshot, REPLACE_EXISTING, ATOMIC_MOVE);
+			log.info("Model saved to {}", snapshot);
+			evict();
+		} catch (IOException | RuntimeException e) {
+			log.warn("Cannot save model snapshot {}", snapshot, e);
+		}
+	}
+
+	private static void evict() throws IOException {
+		@Cleanup var files = Files.list(CACHE_DIR);
+		var snapshots = files.filter(f -> f.getFileName().toString().endsWith(SUFFIX))
+				.sorted(Comparator.comparing(ModelCache::lastModified).reversed())
+				.collect(Collectors.toList());
+		for (var s : snapshots.subList(Math.min(MAX_SNAPSHOTS, snapshots.size()), snapshots.size())) {
+			Files.deleteIfExists(s);
+		}
+	}
+
+	private static FileTime lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static String computeKey(List<String> sources) throws IOException {
+		var digest = Digests.create();
+		for (var s : sources) {
+			var root = Path.of(s).toAbsolutePath().normalize();
+			digest.update(root.toString().getBytes(StandardCharsets.UTF_8));
+			Digests.updateJavaSources(digest, root, root);
+		}
+		return Digests.toHex(digest.digest());
+	}
+}
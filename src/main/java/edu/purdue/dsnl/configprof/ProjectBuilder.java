@@ -1,9 +1,10 @@
 package edu.purdue.dsnl.configprof;
 
 import edu.purdue.dsnl.configprof.adaptor.AppAdaptor;
-import edu.purdue.dsnl.configprof.mutator.AbstractMutator;
-import edu.purdue.dsnl.configprof.mutator.MutationIterator;
-import edu.purdue.dsnl.configprof.mutator.MutatorFactory;
+import edu.purdue.dsnl.configprof.adaptor.InjectionAdaptor;
+import edu.purdue.dsnl.configprof.mutator.BytecodeMutator;
+import edu.purdue.dsnl.configprof.mutator.MutationPlan;
+import edu.purdue.dsnl.configprof.mutator.Mutator;
 import edu.purdue.dsnl.configprof.rpc.BuildMsg;
 import edu.purdue.dsnl.configprof.rpc.WorkerMgr;
 import lombok.Data;
@@ -15,17 +16,34 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 @Log4j2
 class ProjectBuilder implements Runnable {
-	private static final int BATCH_SIZE = 1;
+	static final String REF_TAG = "ref";
 
-	private final Path project;
+	private final List<BuildSlot> slots = new ArrayList<>();
 
-	private final AbstractMutator mutator;
+	private final BlockingQueue<BuildSlot> freeSlots = new LinkedBlockingQueue<>();
+
+	private final ExecutorService slotExecutor;
+
+	/**
+	 * Used to look up the mutations, never to apply them.
+	 */
+	private final Mutator mutator;
 
 	private final boolean supplyMutation;
 
@@ -37,10 +55,48 @@ class ProjectBuilder implements Runnable {
 
 	private final int initCounter;
 
-	private final BlockingQueue<BuiltApp> builtApps = new LinkedBlockingQueue<>(2);
+	private final int batchSize = TestState.getBatchSize();
+
+	/**
+	 * Builds in the order they are started, so that they are tested in the same order whichever slot or worker
+	 * finishes first.
+	 */
+	private final BlockingQueue<CompletableFuture<BuiltApp>> builtApps;
+
+	/**
+	 * Group testing only: the tested groups, and whether each of them should be split.
+	 */
+	private final BlockingQueue<Pair<BuiltApp, Boolean>> resolved = new LinkedBlockingQueue<>();
 
 	private WorkerMgr workerMgr;
 
+	/**
+	 * Literal injection only: sets the override values of each mutation instead of building it.
+	 */
+	private final InjectionAdaptor injectionAdaptor;
+
+	/**
+	 * Literal injection only: where the holder class is generated.
+	 */
+	private final Path injectionSourceDir;
+
+	/**
+	 * Literal injection only: indices of the literal paths, which key the override values.
+	 */
+	private final Map<String, Integer> pathIndices = new HashMap<>();
+
+	/**
+	 * Literal injection only: paths of the literals injected. Mutations of any other literal are built from source.
+	 */
+	private final Set<String> injectedPaths = new HashSet<>();
+
+	/**
+	 * Fingerprint of the reference build, null if equivalent builds are not detected.
+	 */
+	private String refFingerprint;
+
+	private final RunLedger ledger;
+
 	@Data
 	static class BuiltApp {
 		private final List<String> paths;
@@ -49,15 +105,42 @@ class ProjectBuilder implements Runnable {
 		private String tag;
 		private String log;
 		private WorkerMgr.RemotePath remotePath;
+		private boolean equivalent;
+		/**
+		 * Whether it was tested before the test restarted, so that neither building nor testing it again.
+		 */
+		private boolean done;
 
 		public void setLog(Throwable t) {
 			log = t.toString();
 		}
 	}
 
-	ProjectBuilder(String project, List<String> sources, AppAdaptor appAdaptor) throws IOException {
-		this.project = Path.of(project);
-		mutator = MutatorFactory.createMutator(TestState.getLiteralType(), sources);
+	/**
+	 * @param workspaces project copies and their source directories, one build slot each
+	 */
+	ProjectBuilder(List<Pair<String, List<String>>> workspaces, AppAdaptor appAdaptor, RunLedger ledger)
+			throws IOException {
+		this.ledger = ledger;
+		injectionAdaptor = appAdaptor instanceof InjectionAdaptor ? (InjectionAdaptor) appAdaptor : null;
+		injectionSourceDir = Path.of(workspaces.get(0).getRight().get(0));
+		BuildCache cache = null;
+		if (TestState.getBuildCacheSize() > 0 && injectionAdaptor == null) {
+			cache = new BuildCache(appAdaptor, TestState.getBuildCacheSize() << 20);
+		}
+		BytecodeMutator bytecodeMutator = null;
+		if (TestState.isBytecodeMutation() && MutationPlan.exists() && injectionAdaptor == null) {
+			bytecodeMutator = new BytecodeMutator(Path.of(TestState.getProjectPaths().getLeft()),
+					dir -> appAdaptor.getClasses(REF_TAG, dir));
+		}
+		for (var w : workspaces) {
+			var slot = new BuildSlot(w.getLeft(), w.getRight(), appAdaptor, cache, bytecodeMutator);
+			slots.add(slot);
+			freeSlots.add(slot);
+		}
+		mutator = slots.get(0).getMutator();
+		slotExecutor = Executors.newFixedThreadPool(slots.size());
+		builtApps = new LinkedBlockingQueue<>(slots.size() + 1);
 		supplyMutation = TestState.isMutationSupplied();
 		if (supplyMutation) {
 			pathsWithMutations = TestState.getLiteralPathsWithMutations();
@@ -69,87 +152,203 @@ class ProjectBuilder implements Runnable {
 		}
 		this.appAdaptor = appAdaptor;
 		initCounter = TestState.getTestCounter();
+		for (int i = 0; i < getNumPaths(); i++) {
+			pathIndices.putIfAbsent(getPath(i), i);
+		}
+	}
+
+	private int getNumPaths() {
+		return supplyMutation ? pathsWithMutations.size() : paths.size();
+	}
+
+	private String getPath(int i) {
+		return supplyMutation ? pathsWithMutations.get(i).getLeft() : paths.get(i);
 	}
 
 	@SneakyThrows(IOException.class)
 	@Override
 	public void run() {
 		var currentThread = Thread.currentThread();
-		int numPaths = supplyMutation ? pathsWithMutations.size() : paths.size();
-		for (int i = initCounter; i < numPaths && !currentThread.isInterrupted(); i += BATCH_SIZE) {
+		int numPaths = getNumPaths();
+		try {
+			if (batchSize > 1) {
+				runGroups(numPaths);
+			} else {
+				runSingles(numPaths);
+			}
+		} finally {
+			slotExecutor.shutdown();
+		}
+
+		if (!currentThread.isInterrupted()) {
+			try {
+				putBuiltApp(new BuiltApp(Collections.emptyList(), numPaths));
+				slotExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				for (var s : slots) {
+					s.getMutator().commit();
+				}
+			} catch (InterruptedException e) {
+				log.error("Interrupted", e);
+				currentThread.interrupt();
+			}
+		}
+	}
+
+	private void runSingles(int numPaths) throws IOException {
+		var currentThread = Thread.currentThread();
+		for (int i = initCounter; i < numPaths && !currentThread.isInterrupted(); i++) {
 			try {
-				var batchPaths = new ArrayList<String>();
-				var mutationIterators = new ArrayList<MutationIterator>();
+				String p = getPath(i);
 				try {
-					int endBatch = Math.min(i + BATCH_SIZE, numPaths);
-					for (int j = i; j < endBatch; j++) {
-						String p;
-						MutationIterator iterator;
-						if (supplyMutation) {
-							var pair = pathsWithMutations.get(j);
-							p = pair.getLeft();
-							iterator = mutator.getMutations(p, pair.getRight());
-						} else {
-							p = paths.get(j);
-							iterator = mutator.getMutations(p);
-						}
-						batchPaths.add(p);
-						mutationIterators.add(iterator);
-					}
-					while (mutationIterators.stream().anyMatch(MutationIterator::hasNext)) {
-						var mutations = new ArrayList<String>();
-						for (int j = mutationIterators.size() - 1; j >= 0; j--) {
-							mutationIterators.get(j).resetFile();
-						}
-						for (int j = mutationIterators.size() - 1; j >= 0; j--) {
-							mutations.add(0, mutationIterators.get(j).nextOrOriginal());
-						}
-						var record = new BuiltApp(batchPaths, i);
-						record.setMutations(mutations);
-						String tag = i + "_" + String.join("_", mutations);
-						if (workerMgr != null) {
-							buildRpc(batchPaths, mutations, tag, record);
-						} else {
-							buildLocal(tag, record);
-						}
+					for (var m : getCandidates(i)) {
+						var mutations = List.of(m);
+						build(List.of(p), mutations, i + "_" + m, i);
 					}
-				} catch (AbstractMutator.InvalidPathException e) {
-					var record = new BuiltApp(batchPaths, i);
+				} catch (Mutator.InvalidPathException e) {
+					var record = new BuiltApp(List.of(p), i);
 					record.setLog(e);
 					putBuiltApp(record);
-				} finally {
-					for (var m : mutationIterators) {
-						m.close();
-					}
 				}
 			} catch (InterruptedException e) {
 				log.info("Interrupted", e);
 				currentThread.interrupt();
 			}
 		}
+	}
 
-		if (!currentThread.isInterrupted()) {
+	/**
+	 * Group testing: the k-th mutations of the literals in a batch are built and tested together. A group that fails
+	 * or shows an effect is split in halves until the responsible literals are isolated.
+	 */
+	private void runGroups(int numPaths) throws IOException {
+		var currentThread = Thread.currentThread();
+		for (int i = initCounter; i < numPaths && !currentThread.isInterrupted(); i += batchSize) {
 			try {
-				putBuiltApp(new BuiltApp(Collections.emptyList(), numPaths));
+				int unresolved = 0;
+				var batchPaths = new ArrayList<String>();
+				var batchMutations = new ArrayList<List<String>>();
+				for (int j = i; j < Math.min(i + batchSize, numPaths); j++) {
+					String p = getPath(j);
+					try {
+						batchMutations.add(getCandidates(j));
+						batchPaths.add(p);
+					} catch (Mutator.InvalidPathException e) {
+						var record = new BuiltApp(List.of(p), i);
+						record.setLog(e);
+						putBuiltApp(record);
+						unresolved++;
+					}
+				}
+
+				int group = 0;
+				for (int k = 0; ; k++) {
+					var groupPaths = new ArrayList<String>();
+					var groupMutations = new ArrayList<String>();
+					for (int j = 0; j < batchPaths.size(); j++) {
+						if (k < batchMutations.get(j).size()) {
+							groupPaths.add(batchPaths.get(j));
+							groupMutations.add(batchMutations.get(j).get(k));
+						}
+					}
+					if (groupPaths.isEmpty()) {
+						break;
+					}
+					build(groupPaths, groupMutations, i + "_g" + group++, i);
+					unresolved++;
+				}
+
+				while (unresolved > 0) {
+					var next = resolved.take();
+					unresolved--;
+					if (next.getRight()) {
+						var app = next.getLeft();
+						int half = app.getPaths().size() / 2;
+						int size = app.getPaths().size();
+						build(app.getPaths().subList(0, half), app.getMutations().subList(0, half),
+								i + "_g" + group++, i);
+						build(app.getPaths().subList(half, size), app.getMutations().subList(half, size),
+								i + "_g" + group++, i);
+						unresolved += 2;
+					}
+				}
 			} catch (InterruptedException e) {
-				log.error("Interrupted", e);
+				log.info("Interrupted", e);
 				currentThread.interrupt();
 			}
 		}
 	}
 
-	private void buildLocal(String tag, BuiltApp record) throws IOException, InterruptedException {
+	private List<String> getCandidates(int i) throws Mutator.InvalidPathException, IOException {
+		if (supplyMutation) {
+			var pair = pathsWithMutations.get(i);
+			return mutator.getCandidates(pair.getLeft(), pair.getRight());
+		} else {
+			return mutator.getCandidates(paths.get(i));
+		}
+	}
+
+	/**
+	 * Group testing only: reports the outcome of testing a group to the builder.
+	 */
+	void resolve(BuiltApp app, boolean split) {
+		resolved.add(Pair.of(app, split));
+	}
+
+	private void build(List<String> buildPaths, List<String> mutations, String tag, int pathIdx)
+			throws InterruptedException {
+		var record = new BuiltApp(buildPaths, pathIdx);
+		record.setMutations(mutations);
+		record.setTag(tag);
+		if (ledger.isDone(tag)) {
+			record.setDone(true);
+			putBuiltApp(record);
+			return;
+		}
+		if (injectionAdaptor != null && injectedPaths.containsAll(buildPaths)) {
+			var overrides = new Properties();
+			for (int i = 0; i < buildPaths.size(); i++) {
+				overrides.setProperty(String.valueOf(pathIndices.get(buildPaths.get(i))), mutations.get(i));
+			}
+			injectionAdaptor.addOverrides(tag, overrides);
+			putBuiltApp(record);
+			return;
+		}
+		var future = new CompletableFuture<BuiltApp>();
+		builtApps.put(future);
+		if (workerMgr != null) {
+			buildRpc(buildPaths, mutations, tag, record, future);
+		} else {
+			slotExecutor.execute(() -> buildLocal(buildPaths, mutations, tag, record, future));
+		}
+	}
+
+	private void buildLocal(List<String> buildPaths, List<String> mutations, String tag, BuiltApp record,
+			CompletableFuture<BuiltApp> future) {
+		BuildSlot slot = null;
 		try {
-			appAdaptor.build(project, tag);
-			record.setTag(tag);
-		} catch (AppAdaptor.BuildException e) {
+			slot = freeSlots.take();
+			slot.build(buildPaths, mutations, tag);
+			record.setEquivalent(isEquivalent(tag));
+		} catch (AppAdaptor.BuildException | Mutator.InvalidPathException e) {
 			record.setLog(e);
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+			return;
+		} catch (InterruptedException e) {
+			future.completeExceptionally(e);
+			Thread.currentThread().interrupt();
+			return;
 		} finally {
-			putBuiltApp(record);
+			if (slot != null) {
+				freeSlots.add(slot);
+			}
 		}
+		future.complete(record);
+		log.info("Puts built app {}-{}", record.getPathIdx(), record.getMutations());
 	}
 
-	private void buildRpc(List<String> paths, List<String> values, String tag, BuiltApp record) {
+	private void buildRpc(List<String> paths, List<String> values, String tag, BuiltApp record,
+			CompletableFuture<BuiltApp> future) {
 		var mutations = BuildMsg.Mutations.newBuilder().setTag(tag);
 		for (int i = 0; i < paths.size(); i++) {
 			var mut = BuildMsg.Mutations.Mutation.newBuilder().setPath(paths.get(i)).setValue(values.get(i));
@@ -160,7 +359,6 @@ class ProjectBuilder implements Runnable {
 			@Override
 			public void onNext(BuildMsg.Status value) {
 				super.onNext(value);
-				record.setTag(tag);
 				record.setRemotePath(getRemotePath(value));
 			}
 
@@ -170,37 +368,89 @@ class ProjectBuilder implements Runnable {
 				record.setLog(t);
 			}
 
-			@SneakyThrows(InterruptedException.class)
 			@Override
 			public void onRetire() {
-				putBuiltApp(record);
+				future.complete(record);
+				log.info("Puts built app {}-{}", record.getPathIdx(), record.getMutations());
 			}
 		});
 	}
 
-	String buildRef() {
-		String tag = "ref";
+	/**
+	 * @throws IOException if the reference cannot be built
+	 */
+	String buildRef() throws IOException {
+		String tag = REF_TAG;
+		LiteralInjector injector = null;
 		try {
-			appAdaptor.build(project, tag);
-		} catch (AppAdaptor.BuildException | IOException e) {
-			log.fatal("Ref build failed", e);
-			System.exit(2);
+			if (injectionAdaptor != null) {
+				injector = inject();
+			}
+			slots.get(0).build(List.of(), List.of(), tag);
+			if (TestState.isEquivalentSkipped()) {
+				refFingerprint = appAdaptor.fingerprint(tag);
+			}
+		} catch (AppAdaptor.BuildException | Mutator.InvalidPathException e) {
+			throw new IOException("Ref build failed", e);
+		} finally {
+			if (injector != null) {
+				try {
+					injector.restore();
+				} catch (IOException e) {
+					log.error("Cannot restore the injected sources", e);
+				}
+			}
 		}
 		return tag;
 	}
 
+	/**
+	 * Rewrites the literals to test in slot 0, so that the reference build serves every mutation.
+	 */
+	private LiteralInjector inject() throws IOException {
+		var location = appAdaptor.getOverrideLocation();
+		if (location == null) {
+			throw new IOException("Literal injection not supported");
+		}
+		var toInject = new HashMap<Integer, String>();
+		var values = new HashMap<Integer, List<String>>();
+		for (int i = 0; i < getNumPaths(); i++) {
+			try {
+				values.put(i, getCandidates(i));
+				toInject.put(i, getPath(i));
+			} catch (Mutator.InvalidPathException e) {
+				log.warn("Cannot inject {}", getPath(i), e);
+			}
+		}
+		var injector = new LiteralInjector(slots.get(0).getProject(), injectionSourceDir, location);
+		for (var i : injector.instrument(toInject, values)) {
+			injectedPaths.add(toInject.get(i));
+		}
+		return injector;
+	}
+
 	private void putBuiltApp(BuiltApp app) throws InterruptedException {
-		builtApps.put(app);
+		builtApps.put(CompletableFuture.completedFuture(app));
 		log.info("Puts built app {}-{}", app.getPathIdx(), app.getMutations());
 	}
 
 	@SneakyThrows(InterruptedException.class)
 	BuiltApp nextBuiltApp() throws IOException {
-		var next = builtApps.take();
+		BuiltApp next;
+		try {
+			next = builtApps.take().join();
+		} catch (CompletionException e) {
+			throw new IOException(e.getCause());
+		}
 		log.info("Takes built app {}-{}", next.getPathIdx(), next.getMutations());
-		if (workerMgr != null && next.tag != null) {
+		if (workerMgr != null && next.remotePath != null) {
 			workerMgr.sync(next.remotePath, appAdaptor.getPath(next.tag));
+			next.setEquivalent(isEquivalent(next.tag));
 		}
 		return next;
 	}
+
+	private boolean isEquivalent(String tag) throws IOException {
+		return refFingerprint != null && refFingerprint.equals(appAdaptor.fingerprint(tag));
+	}
 }
@@ -0,0 +1,102 @@
+package edu.purdue.dsnl.configprof;
+
+import edu.purdue.dsnl.configprof.result.ResultMap;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides when to run the reference again, instead of before every path. The reference is run again once its results
+ * are older than the time budget, or once a two-sided CUSUM control chart over single probe runs of the reference
+ * signals drift away from them. Each full reference run starts a new epoch, named by the mileage it starts at, so that
+ * the epochs of a device stay distinct across restarts appending to the same results.
+ */
+@Log4j2
+class RefScheduler {
+	/**
+	 * Lower bound of the standard deviation relative to the mean, so that metrics without noise do not alarm on
+	 * rounding.
+	 */
+	private static final double MIN_RELATIVE_SD = 1e-3;
+
+	private final long maxAgeNanos;
+
+	private final double threshold;
+
+	private final double slack;
+
+	/**
+	 * -1 before the first epoch.
+	 */
+	@Getter
+	private int epoch = -1;
+
+	private long epochStart;
+
+	/**
+	 * Mean and standard deviation of each metric in the current epoch.
+	 */
+	private final Map<String, double[]> baseline = new HashMap<>();
+
+	/**
+	 * Upper and lower cumulative sums of each metric.
+	 */
+	private final Map<String, double[]> sums = new HashMap<>();
+
+	/**
+	 * @param threshold decision interval of the CUSUM chart, in standard deviations
+	 * @param slack allowance of the CUSUM chart, in standard deviations
+	 */
+	RefScheduler(long maxAgeSeconds, double threshold, double slack) {
+		maxAgeNanos = maxAgeSeconds * 1_000_000_000L;
+		this.threshold = threshold;
+		this.slack = slack;
+	}
+
+	boolean isExpired() {
+		return epoch < 0 || System.nanoTime() - epochStart > maxAgeNanos;
+	}
+
+	void startEpoch(int mileage, List<ResultMap> results) {
+		epoch = mileage;
+		epochStart = System.nanoTime();
+		baseline.clear();
+		sums.clear();
+		var stats = new HashMap<String, SummaryStatistics>();
+		for (var r : results) {
+			r.forEachDouble((m, v) -> stats.computeIfAbsent(m, k -> new SummaryStatistics()).addValue(v));
+		}
+		for (var e : stats.entrySet()) {
+			double mean = e.getValue().getMean();
+			double sd = Math.max(e.getValue().getStandardDeviation(), Math.abs(mean) * MIN_RELATIVE_SD);
+			baseline.put(e.getKey(), new double[]{mean, sd});
+			sums.put(e.getKey(), new double[2]);
+		}
+	}
+
+	/**
+	 * @return whether drift is detected
+	 */
+	boolean observe(ResultMap probe) {
+		boolean drift = false;
+		for (var e : probe.entrySet()) {
+			var b = baseline.get(e.getKey());
+			if (b == null || b[1] == 0) {
+				continue;
+			}
+			double z = (e.getValue().doubleValue() - b[0]) / b[1];
+			var s = sums.get(e.getKey());
+			s[0] = Math.max(0, s[0] + z - slack);
+			s[1] = Math.max(0, s[1] - z - slack);
+			if (s[0] > threshold || s[1] > threshold) {
+				log.info("Reference drift on {}, epoch {}", e.getKey(), epoch);
+				drift = true;
+			}
+		}
+		return drift;
+	}
+}
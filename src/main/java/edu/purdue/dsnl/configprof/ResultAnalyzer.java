@@ -0,0 +1,349 @@
+package edu.purdue.dsnl.configprof;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.opencsv.CSVWriter;
+import edu.purdue.dsnl.configprof.result.ResultMap;
+import edu.purdue.dsnl.configprof.result.ResultReader;
+import lombok.Cleanup;
+import lombok.Data;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.stat.StatUtils;
+import org.apache.commons.math3.stat.inference.TTest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Compares the results of each mutation with the reference results it was tested against, metric by metric, and ranks
+ * the mutations by the significance and size of their effects. The mutation results are streamed and analyzed in
+ * parallel, while the reference results, one record per batch of reference runs, are kept in memory.
+ * <p>
+ * The reference of a mutation is the one run alongside it when interleaving, else the one recorded with it by mileage
+ * or by epoch, else for older results the latest one on the same device at or before the mileage of its record.
+ */
+@Log4j2
+class ResultAnalyzer {
+	private static final String[] CSV_HEADER = {
+			"rank", "paths", "mutation", "metric", "refMean", "mutMean", "effect", "ciLow", "ciHigh", "hedgesG",
+			"p", "q", "refN", "mutN"};
+
+	/**
+	 * Device of results from a single device.
+	 */
+	private static final String NO_DEVICE = "";
+
+	private final double alpha;
+
+	private final int threads;
+
+	private final Gson gson = new Gson();
+
+	/**
+	 * Reference runs, not probes, by device in file order.
+	 */
+	private final Map<String, List<Ref>> refsByDevice = new HashMap<>();
+
+	private final Map<String, Ref> refsByEpoch = new HashMap<>();
+
+	/**
+	 * The last reference run of each device at each mileage, after any restart.
+	 */
+	private final Map<String, Ref> refsByMileage = new HashMap<>();
+
+	@Value
+	private static class Ref {
+		int mileage;
+		List<ResultMap> results;
+	}
+
+	@Data
+	static class Row {
+		private final int record;
+		private final int mutationIdx;
+		private final String paths;
+		private final String mutation;
+		private final String metric;
+		private final double refMean;
+		private final double mutMean;
+		/**
+		 * Difference of the means relative to the reference mean.
+		 */
+		private final double effect;
+		/**
+		 * Confidence interval of {@link #effect}.
+		 */
+		private final double ciLow;
+		private final double ciHigh;
+		private final double hedgesG;
+		/**
+		 * Welch's t-test, two-sided.
+		 */
+		private final double p;
+		private final int refN;
+		private final int mutN;
+		/**
+		 * Benjamini-Hochberg adjusted p value over all rows.
+		 */
+		private double q = Double.NaN;
+	}
+
+	/**
+	 * @param alpha significance level, and 1 - confidence level of the intervals
+	 */
+	ResultAnalyzer(double alpha, int threads) {
+		this.alpha = alpha;
+		this.threads = Math.max(threads, 1);
+	}
+
+	/**
+	 * @return the rows, ranked
+	 */
+	List<Row> analyze(Path refFile, Path mutFile) throws IOException, InterruptedException {
+		loadRefs(refFile);
+
+		var executor = Executors.newFixedThreadPool(threads);
+		var inFlight = new Semaphore(threads * 4);
+		var futures = new ArrayList<Future<List<Row>>>();
+		try (var reader = new ResultReader(mutFile)) {
+			JsonObject record;
+			for (int i = 0; (record = reader.next()) != null; i++) {
+				inFlight.acquire();
+				int idx = i;
+				var r = record;
+				futures.add(executor.submit(() -> {
+					try {
+						return analyzeRecord(idx, r);
+					} finally {
+						inFlight.release();
+					}
+				}));
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		var rows = new ArrayList<Row>();
+		for (var f : futures) {
+			try {
+				rows.addAll(f.get());
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		adjust(rows);
+		rows.sort(Comparator.comparing((Row r) -> !(r.q < alpha))
+				.thenComparing(r -> Double.isNaN(r.effect) ? 0 : -Math.abs(r.effect))
+				.thenComparingDouble(r -> r.p)
+				.thenComparingInt(r -> r.record)
+				.thenComparingInt(r -> r.mutationIdx)
+				.thenComparing(r -> r.metric));
+		log.info("Analyzed {} records into {} rows", futures.size(), rows.size());
+		return rows;
+	}
+
+	void writeCsv(List<Row> rows, Path out) throws IOException {
+		@Cleanup var writer = new CSVWriter(Files.newBufferedWriter(out));
+		writer.writeNext(CSV_HEADER);
+		for (int i = 0; i < rows.size(); i++) {
+			var r = rows.get(i);
+			writer.writeNext(new String[]{
+					String.valueOf(i + 1), r.paths, r.mutation, r.metric, String.valueOf(r.refMean),
+					String.valueOf(r.mutMean), String.valueOf(r.effect), String.valueOf(r.ciLow),
+					String.valueOf(r.ciHigh), String.valueOf(r.hedgesG), String.valueOf(r.p), String.valueOf(r.q),
+					String.valueOf(r.refN), String.valueOf(r.mutN)});
+		}
+	}
+
+	void print(List<Row> rows, int top, PrintStream out) {
+		out.printf("%4s  %-9s %-9s %8s %20s  %9s %9s  %s%n",
+				"rank", "effect", "q", "hedgesG", "ci", "mutation", "metric", "paths");
+		for (int i = 0; i < Math.min(top, rows.size()); i++) {
+			var r = rows.get(i);
+			out.printf("%4d  %+8.2f%% %9.2e %8.2f [%+7.2f%%, %+7.2f%%]  %9s %9s  %s%n", i + 1, r.effect * 100, r.q,
+					r.hedgesG, r.ciLow * 100, r.ciHigh * 100, r.mutation, r.metric, r.paths);
+		}
+	}
+
+	private void loadRefs(Path refFile) throws IOException {
+		try (var reader = new ResultReader(refFile)) {
+			JsonObject ref;
+			while ((ref = reader.next()) != null) {
+				if (isTrue(ref.get("probe"))) {
+					continue;
+				}
+				var device = getDevice(ref);
+				var r = new Ref(ref.get("mileage").getAsInt(), toResults(ref.getAsJsonArray("results")));
+				refsByDevice.computeIfAbsent(device, k -> new ArrayList<>()).add(r);
+				refsByMileage.put(device + '#' + r.mileage, r);
+				if (ref.has("epoch")) {
+					refsByEpoch.put(device + '#' + ref.get("epoch").getAsInt(), r);
+				}
+			}
+		}
+	}
+
+	private List<Row> analyzeRecord(int idx, JsonObject record) {
+		var rows = new ArrayList<Row>();
+		int mileage = record.has("mileage") ? record.get("mileage").getAsInt() : idx;
+		var paths = join(record.getAsJsonArray("paths"));
+		var mutations = record.getAsJsonArray("mutations");
+		if (mutations == null) {
+			return rows;
+		}
+		for (int m = 0; m < mutations.size(); m++) {
+			var mutation = mutations.get(m).getAsJsonObject();
+			var mutResults = toResults(mutation.getAsJsonArray("results"));
+			if (mutResults.isEmpty()) {
+				continue;
+			}
+			var refResults = findRef(mileage, mutation);
+			if (refResults.isEmpty()) {
+				log.warn("No reference for record {}", idx);
+				continue;
+			}
+			var metrics = new LinkedHashSet<String>();
+			mutResults.forEach(r -> metrics.addAll(r.keySet()));
+			for (var metric : metrics) {
+				var row = compare(idx, m, paths, join(mutation.getAsJsonArray("mutation")), metric,
+						ResultMap.column(refResults, metric), ResultMap.column(mutResults, metric));
+				if (row != null) {
+					rows.add(row);
+				}
+			}
+		}
+		return rows;
+	}
+
+	private List<ResultMap> findRef(int mileage, JsonObject mutation) {
+		var inline = toResults(mutation.getAsJsonArray("refResults"));
+		if (!inline.isEmpty()) {
+			return inline;
+		}
+		var device = getDevice(mutation);
+		if (mutation.has("refMileage")) {
+			var ref = refsByMileage.get(device + '#' + mutation.get("refMileage").getAsInt());
+			if (ref != null) {
+				return ref.results;
+			}
+		}
+		if (mutation.has("refEpoch")) {
+			var ref = refsByEpoch.get(device + '#' + mutation.get("refEpoch").getAsInt());
+			if (ref != null) {
+				return ref.results;
+			}
+		}
+		var refs = refsByDevice.getOrDefault(device, List.of());
+		if (refs.isEmpty()) {
+			return List.of();
+		}
+		int low = 0;
+		int high = refs.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) / 2;
+			if (refs.get(mid).mileage <= mileage) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return refs.get(low).results;
+	}
+
+	/**
+	 * @return null if either side has fewer than 2 values
+	 */
+	private Row compare(int idx, int mutationIdx, String paths, String mutation, String metric, double[] ref,
+			double[] mut) {
+		if (ref.length < 2 || mut.length < 2) {
+			return null;
+		}
+		double refMean = StatUtils.mean(ref);
+		double mutMean = StatUtils.mean(mut);
+		double refVar = StatUtils.variance(ref);
+		double mutVar = StatUtils.variance(mut);
+		double diff = mutMean - refMean;
+		double se = Math.sqrt(refVar / ref.length + mutVar / mut.length);
+
+		double p;
+		double halfWidth;
+		if (se == 0) {
+			p = diff == 0 ? 1 : 0;
+			halfWidth = 0;
+		} else {
+			double df = SequentialStopper.welchDegreesOfFreedom(refVar / ref.length, ref.length,
+					mutVar / mut.length, mut.length);
+			p = new TTest().tTest(ref, mut);
+			halfWidth = new TDistribution(df).inverseCumulativeProbability(1 - alpha / 2) * se;
+		}
+
+		int n = ref.length + mut.length;
+		double pooled = Math.sqrt(((ref.length - 1) * refVar + (mut.length - 1) * mutVar) / (n - 2));
+		double g = pooled == 0 ? (diff == 0 ? 0 : Math.signum(diff) * Double.POSITIVE_INFINITY)
+				: diff / pooled * (1 - 3.0 / (4 * n - 9));
+
+		double scale = Math.abs(refMean);
+		return new Row(idx, mutationIdx, paths, mutation, metric, refMean, mutMean, diff / scale,
+				(diff - halfWidth) / scale, (diff + halfWidth) / scale, g, p, ref.length, mut.length);
+	}
+
+	/**
+	 * Benjamini-Hochberg: the smallest {@code p * m / rank} at or above the rank of each p value.
+	 */
+	private static void adjust(List<Row> rows) {
+		var sorted = new ArrayList<>(rows);
+		sorted.sort(Comparator.comparingDouble(Row::getP));
+		Collections.reverse(sorted);
+		int m = sorted.size();
+		double min = 1;
+		for (int i = 0; i < m; i++) {
+			var r = sorted.get(i);
+			min = Math.min(min, r.p * m / (m - i));
+			r.setQ(min);
+		}
+	}
+
+	private List<ResultMap> toResults(JsonArray array) {
+		var results = new ArrayList<ResultMap>();
+		if (array != null) {
+			for (var e : array) {
+				results.add(gson.fromJson(e, ResultMap.class));
+			}
+		}
+		return results;
+	}
+
+	private static String join(JsonArray array) {
+		var strings = new ArrayList<String>();
+		if (array != null) {
+			array.forEach(e -> strings.add(e.getAsString()));
+		}
+		return String.join(",", strings);
+	}
+
+	private static String getDevice(JsonObject object) {
+		var e = object.get("device");
+		return e == null || e.isJsonNull() ? NO_DEVICE : e.getAsString();
+	}
+
+	private static boolean isTrue(JsonElement e) {
+		return e != null && !e.isJsonNull() && e.getAsBoolean();
+	}
+}
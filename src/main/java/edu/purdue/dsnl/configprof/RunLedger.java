@@ -0,0 +1,196 @@
+package edu.purdue.dsnl.configprof;
+
+import com.google.gson.Gson;
+import edu.purdue.dsnl.configprof.result.MutResult;
+import edu.purdue.dsnl.configprof.result.ResultMap;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only log of the progress within the untested paths, one JSON entry per line, so that a restarted test skips
+ * the mutations already tested and the trials already run. Entries of the paths before the test counter are dropped
+ * when the ledger is opened.
+ */
+@Log4j2
+class RunLedger implements Closeable {
+	private static final Path LEDGER_FILE = Path.of("run-ledger.jsonl");
+
+	private final Gson gson = new Gson();
+
+	private final FileChannel channel;
+
+	/**
+	 * Kept trials by their indices, of the mutations not done.
+	 */
+	private final Map<String, TreeMap<Integer, ResultMap>> trials = new HashMap<>();
+
+	private final Map<String, Entry> done = new HashMap<>();
+
+	private enum Event {
+		/**
+		 * The test (re)starts at the path.
+		 */
+		START,
+		/**
+		 * The paths before are all tested.
+		 */
+		PATH,
+		TRIAL,
+		DONE,
+	}
+
+	@Value
+	private static class Entry {
+		Event event;
+		int pathIdx;
+		String tag;
+		Integer trial;
+		ResultMap result;
+		MutResult record;
+		Boolean affected;
+	}
+
+	private RunLedger(List<Entry> entries, int counter) throws IOException {
+		var tmp = Path.of(LEDGER_FILE + ".tmp");
+		try (var writer = Files.newBufferedWriter(tmp)) {
+			for (var e : entries) {
+				writer.write(gson.toJson(e));
+				writer.newLine();
+			}
+			writer.write(gson.toJson(new Entry(Event.START, counter, null, null, null, null, null)));
+			writer.newLine();
+		}
+		Files.move(tmp, LEDGER_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(LEDGER_FILE, WRITE, APPEND);
+		for (var e : entries) {
+			load(e);
+		}
+	}
+
+	/**
+	 * Loads the entries from the test counter on, or none if the counter is behind the ledger, that is, reset since.
+	 */
+	static RunLedger open(int counter) throws IOException {
+		var gson = new Gson();
+		var entries = new ArrayList<Entry>();
+		int expected = 0;
+		if (Files.exists(LEDGER_FILE)) {
+			for (var line : Files.readAllLines(LEDGER_FILE)) {
+				Entry e;
+				try {
+					e = gson.fromJson(line, Entry.class);
+				} catch (RuntimeException ex) {
+					log.warn("Drops torn ledger entry {}", line);
+					continue;
+				}
+				if (e == null) {
+					continue;
+				}
+				if (e.event == Event.START || e.event == Event.PATH) {
+					expected = Math.max(expected, e.pathIdx);
+				} else if (e.pathIdx >= counter) {
+					entries.add(e);
+				}
+			}
+		}
+		if (counter < expected) {
+			log.info("Test counter reset to {}, discards the ledger", counter);
+			entries.clear();
+		} else if (!entries.isEmpty()) {
+			log.info("Resumes from ledger with {} entries", entries.size());
+		}
+		return new RunLedger(entries, counter);
+	}
+
+	static void reset() throws IOException {
+		Files.deleteIfExists(LEDGER_FILE);
+	}
+
+	private void load(Entry e) {
+		switch (e.event) {
+			case TRIAL -> trials.computeIfAbsent(e.tag, t -> new TreeMap<>()).put(e.trial, e.result);
+			case DONE -> {
+				done.put(e.tag, e);
+				trials.remove(e.tag);
+			}
+			default -> {
+			}
+		}
+	}
+
+	synchronized boolean isDone(String tag) {
+		return done.containsKey(tag);
+	}
+
+	/**
+	 * @return the record of a mutation done, tested on whichever device
+	 */
+	synchronized MutResult getRecord(String tag) {
+		return done.get(tag).record;
+	}
+
+	/**
+	 * @return whether a mutation done is affected, as in group testing
+	 */
+	synchronized boolean isAffected(String tag) {
+		return done.get(tag).affected;
+	}
+
+	/**
+	 * Removes the trials run before the restart, so that only the first attempt at the mutation reuses them.
+	 *
+	 * @param from index of the first kept trial
+	 * @return kept trials from {@code from} on, up to the first missing one
+	 */
+	synchronized List<ResultMap> takeTrials(String tag, int from) {
+		var results = new ArrayList<ResultMap>();
+		var t = trials.remove(tag);
+		if (t != null) {
+			for (int i = from; t.containsKey(i); i++) {
+				results.add(t.get(i));
+			}
+		}
+		return results;
+	}
+
+	synchronized void addTrial(int pathIdx, String tag, int trial, ResultMap result) throws IOException {
+		append(new Entry(Event.TRIAL, pathIdx, tag, trial, result, null, null));
+	}
+
+	synchronized void addDone(int pathIdx, String tag, MutResult record, boolean affected) throws IOException {
+		append(new Entry(Event.DONE, pathIdx, tag, null, null, record, affected));
+	}
+
+	synchronized void addPath(int pathIdx) throws IOException {
+		append(new Entry(Event.PATH, pathIdx, null, null, null, null, null));
+	}
+
+	private void append(Entry e) throws IOException {
+		var buffer = ByteBuffer.wrap((gson.toJson(e) + '\n').getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,153 @@
+package edu.purdue.dsnl.configprof;
+
+import edu.purdue.dsnl.configprof.result.ResultMap;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.stat.StatUtils;
+import org.apache.commons.math3.stat.inference.TTest;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides after each trial whether more trials are needed, instead of repeating whole batches until they are stable.
+ * Trials stop once the mutant significantly differs from the reference, is equivalent to it within a margin (two
+ * one-sided tests), or the confidence interval of each metric mean is narrow enough. The significance level of the
+ * tests is split evenly across the trials that may be looked at, so that looking after every trial does not inflate
+ * it. The confidence intervals use the whole level, as stopping on them decides nothing about the mutant.
+ */
+@Log4j2
+class SequentialStopper {
+	enum Decision {
+		CONTINUE,
+		STABLE,
+		DIFFERENT,
+		EQUIVALENT,
+		MAX_TRIALS,
+	}
+
+	private final int minTrials;
+
+	private final int maxTrials;
+
+	private final double alpha;
+
+	/**
+	 * Significance level of each look.
+	 */
+	private final double testAlpha;
+
+	private final double ciWidth;
+
+	private final double equivalenceMargin;
+
+	/**
+	 * @param minTrials trials to run before the first decision, at least 2
+	 */
+	SequentialStopper(int minTrials, int maxTrials, double alpha, double ciWidth, double equivalenceMargin) {
+		this.minTrials = Math.max(minTrials, 2);
+		this.maxTrials = Math.max(maxTrials, this.minTrials);
+		this.alpha = alpha;
+		testAlpha = alpha / (this.maxTrials - this.minTrials + 1);
+		this.ciWidth = ciWidth;
+		this.equivalenceMargin = equivalenceMargin;
+	}
+
+	/**
+	 * @param ref reference results to compare with, or null to only check the confidence intervals
+	 */
+	Decision decide(List<ResultMap> ref, List<ResultMap> results) {
+		Decision decision;
+		if (results.size() < minTrials) {
+			return Decision.CONTINUE;
+		} else if (ref != null && ref.size() >= 2 && differs(ref, results)) {
+			decision = Decision.DIFFERENT;
+		} else if (ref != null && ref.size() >= 2 && isEquivalent(ref, results)) {
+			decision = Decision.EQUIVALENT;
+		} else if (isNarrow(results)) {
+			decision = Decision.STABLE;
+		} else if (results.size() >= maxTrials) {
+			decision = Decision.MAX_TRIALS;
+		} else {
+			return Decision.CONTINUE;
+		}
+		log.info("Stops after {} trials: {}", results.size(), decision);
+		return decision;
+	}
+
+	private boolean differs(List<ResultMap> ref, List<ResultMap> results) {
+		var metrics = getMetrics(results);
+		var tTest = new TTest();
+		for (var m : metrics) {
+			var refValues = getValues(ref, m);
+			var values = getValues(results, m);
+			if (refValues.length >= 2 && values.length >= 2
+					&& tTest.tTest(refValues, values, testAlpha / metrics.size())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Two one-sided tests on each metric: the (1 - 2 alpha) confidence interval of the difference of the means lies
+	 * within the margin relative to the reference mean.
+	 */
+	private boolean isEquivalent(List<ResultMap> ref, List<ResultMap> results) {
+		var metrics = getMetrics(results);
+		for (var m : metrics) {
+			var refValues = getValues(ref, m);
+			var values = getValues(results, m);
+			if (refValues.length < 2 || values.length < 2) {
+				return false;
+			}
+			double refVar = StatUtils.variance(refValues) / refValues.length;
+			double var = StatUtils.variance(values) / values.length;
+			double se = Math.sqrt(refVar + var);
+			double df = welchDegreesOfFreedom(refVar, refValues.length, var, values.length);
+			double diff = StatUtils.mean(values) - StatUtils.mean(refValues);
+			double margin = equivalenceMargin * Math.abs(StatUtils.mean(refValues));
+			double halfWidth = quantile(testAlpha / metrics.size(), df) * se;
+			if (Math.abs(diff) + halfWidth >= margin) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isNarrow(List<ResultMap> results) {
+		var metrics = getMetrics(results);
+		for (var m : metrics) {
+			var values = getValues(results, m);
+			if (values.length < 2) {
+				return false;
+			}
+			double halfWidth = quantile(alpha / (2 * metrics.size()), values.length - 1)
+					* Math.sqrt(StatUtils.variance(values) / values.length);
+			if (halfWidth > ciWidth * Math.abs(StatUtils.mean(values))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static double welchDegreesOfFreedom(double var1, int n1, double var2, int n2) {
+		double df = (var1 + var2) * (var1 + var2) / (var1 * var1 / (n1 - 1) + var2 * var2 / (n2 - 1));
+		return Double.isNaN(df) ? n1 + n2 - 2 : df;
+	}
+
+	/**
+	 * @return the t value with {@code p} in the upper tail
+	 */
+	private static double quantile(double p, double df) {
+		return new TDistribution(df).inverseCumulativeProbability(1 - p);
+	}
+
+	private static Set<String> getMetrics(List<ResultMap> results) {
+		return results.get(0).keySet();
+	}
+
+	private static double[] getValues(List<ResultMap> results, String metric) {
+		return ResultMap.column(results, metric);
+	}
+}
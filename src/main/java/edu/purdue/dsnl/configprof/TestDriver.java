@@ -1,18 +1,34 @@
 package edu.purdue.dsnl.configprof;
 
 import edu.purdue.dsnl.configprof.adaptor.AppAdaptor;
+import edu.purdue.dsnl.configprof.adaptor.AsyncAppAdaptor;
+import edu.purdue.dsnl.configprof.adaptor.ThreadedAsyncAdaptor;
 import edu.purdue.dsnl.configprof.result.MutResult;
 import edu.purdue.dsnl.configprof.result.RefResult;
 import edu.purdue.dsnl.configprof.result.ResultMap;
 import edu.purdue.dsnl.configprof.result.ResultSerializer;
+import edu.purdue.dsnl.configprof.result.ResultStore;
+import edu.purdue.dsnl.configprof.result.ResultWriter;
+import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.math3.stat.inference.TTest;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
 
 @Log4j2
 class TestDriver implements Closeable {
@@ -26,11 +42,31 @@ class TestDriver implements Closeable {
 
 	private static final Path MUT_RESULT_FILE = Path.of("mut-results.json");
 
+	private static final Path REF_RESULT_STORE = Path.of("ref-results.bin");
+
+	private static final Path MUT_RESULT_STORE = Path.of("mut-results.bin");
+
 	private final ProjectBuilder builder;
 
-	private final AppAdaptor appAdaptor;
+	private final RunLedger ledger;
+
+	private final List<Device> devices = new ArrayList<>();
+
+	/**
+	 * Devices able to take another app, each listed once more while pipelining, for the app staged on it.
+	 */
+	private final BlockingQueue<Device> freeDevices = new LinkedBlockingQueue<>();
+
+	/**
+	 * Null unless the next app of each device is staged while it tests the current one.
+	 */
+	private final ExecutorService stageExecutor;
 
-	private final int initCounter = TestState.getTestCounter();
+	/**
+	 * Outcomes in the order the apps are built, so that results are merged in path order whichever device finishes
+	 * first.
+	 */
+	private final BlockingQueue<CompletableFuture<Outcome>> outcomes = new LinkedBlockingQueue<>();
 
 	private final int repeatTest = TestState.getRepeatTest();
 
@@ -38,43 +74,94 @@ class TestDriver implements Closeable {
 
 	private final boolean interleave = TestState.isInterleave();
 
+	private final boolean groupTesting = TestState.getBatchSize() > 1;
+
+	private final double groupAlpha = TestState.getGroupAlpha();
+
+	/**
+	 * Null unless trials are added one at a time.
+	 */
+	private final SequentialStopper stopper;
+
 	private String refApk;
 
-	private final ResultSerializer refResultSerializer = new ResultSerializer(REF_RESULT_FILE);
+	private final ResultWriter refResultSerializer = TestState.isBinaryResults()
+			? new ResultStore(REF_RESULT_STORE) : new ResultSerializer(REF_RESULT_FILE);
 
-	private final ResultSerializer mutResultSerializer = new ResultSerializer(MUT_RESULT_FILE);
+	private final ResultWriter mutResultSerializer = TestState.isBinaryResults()
+			? new ResultStore(MUT_RESULT_STORE) : new ResultSerializer(MUT_RESULT_FILE);
 
 	private interface Executor<T> {
 		T exec() throws AppAdaptor.ExecutionException, IOException;
 	}
 
-	TestDriver(ProjectBuilder builder, AppAdaptor appAdaptor) throws IOException {
+	@Value
+	private static class Outcome {
+		ProjectBuilder.BuiltApp builtApp;
+		MutResult record;
+		boolean affected;
+	}
+
+	/**
+	 * @param appAdaptors one per device, the mutants being compared with reference runs on the same device
+	 */
+	TestDriver(ProjectBuilder builder, List<AppAdaptor> appAdaptors, RunLedger ledger) throws IOException {
 		this.builder = builder;
-		this.appAdaptor = appAdaptor;
+		this.ledger = ledger;
+		boolean pipelined = TestState.isPipelineInstall();
+		for (var a : appAdaptors) {
+			var device = new Device(a, appAdaptors.size() > 1 ? a.getDevice() : null);
+			devices.add(device);
+			freeDevices.add(device);
+		}
+		if (pipelined) {
+			// One app staged on each device while it tests another, handed out only once every device has one
+			freeDevices.addAll(devices);
+		}
+		stageExecutor = pipelined ? Executors.newFixedThreadPool(devices.size()) : null;
+		if (TestState.isSequential()) {
+			stopper = new SequentialStopper(repeatTest - discardTest, TestState.getMaxTrials(),
+					TestState.getSequentialAlpha(), TestState.getCiWidth(), TestState.getEquivalenceMargin());
+		} else {
+			stopper = null;
+		}
 	}
 
 	void run() throws IOException {
 		refApk = builder.buildRef();
+		if (stageExecutor != null) {
+			for (var d : devices) {
+				d.stage(refApk);
+			}
+		}
 		var builderThread = new Thread(builder);
+		var dispatcherThread = new Thread(this::dispatch);
 		try {
 			builderThread.start();
+			dispatcherThread.start();
 
 			int currIdx = -1;
 			MutResult record = null;
+			long start = System.nanoTime();
+			int tested = 0;
 			while (true) {
-				var builtApp = builder.nextBuiltApp();
+				var outcome = nextOutcome();
+				var builtApp = outcome.getBuiltApp();
 				var idx = builtApp.getPathIdx();
 				var path = builtApp.getPaths();
-				boolean idxChanged = false;
 
 				if (idx != currIdx) {
 					if (record != null) {
-						mutResultSerializer.toJson(record);
+						if (!groupTesting) {
+							mutResultSerializer.write(record);
+						}
 						TestState.saveTestCounter(idx);
+						ledger.addPath(idx);
+						logThroughput(tested, start);
 					}
 					record = new MutResult(path);
+					record.setMileage(idx);
 					currIdx = idx;
-					idxChanged = true;
 				}
 
 				assert record != null;
@@ -83,37 +170,22 @@ class TestDriver implements Closeable {
 					break;
 				}
 
-				var mutations = builtApp.getMutations();
-
-				if (builtApp.getLog() != null) {
-					record.addResults(mutations, MutResult.Status.ABORT_COMPILE, builtApp.getLog());
-					continue;
-				}
-
-				if (idxChanged && !interleave && (idx - initCounter) % REF_RUN_INTERVAL == 0) {
-					try {
-						var results = runPairUntilStable(() -> tryAgainIfFail(() -> runRefTest(idx)));
-						refResultSerializer.toJson(new RefResult(idx, results.getLeft(), results.getRight()));
-					} catch (AppAdaptor.ExecutionException e) {
-						log.fatal("Ref run failed", e);
-						System.exit(1);
+				if (groupTesting) {
+					boolean split = outcome.isAffected() && path.size() > 1;
+					if (!builtApp.isDone()) {
+						outcome.getRecord().setBisected(split);
+						mutResultSerializer.write(outcome.getRecord());
 					}
+					builder.resolve(builtApp, split);
+				} else {
+					record.merge(outcome.getRecord());
 				}
-
-				try {
-					if (interleave) {
-						int finalCurrIdx = currIdx;
-						var results = runPairUntilStable(() ->
-								tryAgainIfFail(() -> runInterleaveTest(finalCurrIdx, builtApp.getTag())));
-						record.addResults(mutations, MutResult.Status.FINISH, results.getLeft(), results.getRight());
-					} else {
-						var results = runUntilStable(() -> tryAgainIfFail(() -> runMutTest(builtApp.getTag())));
-						record.addResults(mutations, MutResult.Status.FINISH, results);
-					}
-				} catch (AppAdaptor.ExecutionException e) {
-					record.addResults(mutations, MutResult.Status.ABORT_EXEC, e.getMessage());
+				if (!builtApp.isDone() && builtApp.getTag() != null) {
+					ledger.addDone(idx, builtApp.getTag(), outcome.getRecord(), outcome.isAffected());
+				}
+				if (!builtApp.isDone()) {
+					tested++;
 				}
-				appAdaptor.delete(builtApp.getTag());
 			}
 
 			if (!interleave) {
@@ -121,117 +193,471 @@ class TestDriver implements Closeable {
 			}
 			mutResultSerializer.finish();
 		} finally {
+			dispatcherThread.interrupt();
 			builderThread.interrupt();
+			for (var d : devices) {
+				d.executor.shutdownNow();
+				d.stageRunner.shutdownNow();
+			}
+			if (stageExecutor != null) {
+				stageExecutor.shutdownNow();
+			}
 		}
 	}
 
-	private <T> T tryAgainIfFail(Executor<T> executor) throws IOException, AppAdaptor.ExecutionException {
-		for (int i = 0; i < RETRY - 1; i++) {
-			try {
-				return executor.exec();
-			} catch (AppAdaptor.ExecutionException e) {
-				log.info("Try again", e);
-			}
-		}
-		return executor.exec();
+	private static void logThroughput(int tested, long start) {
+		double hours = (System.nanoTime() - start) / 3.6e12;
+		log.info("Tested {} mutants, {} per hour", tested, String.format("%.1f", tested / hours));
 	}
 
-	private List<ResultMap> runUntilStable(Executor<List<ResultMap>> executor)
-			throws IOException, AppAdaptor.ExecutionException {
-		log.traceEntry();
-		List<ResultMap> results;
-		do {
-			results = executor.exec();
-			log.debug(results);
-		} while (!appAdaptor.isStable(results));
-		return log.traceExit(results);
-	}
-
-	private Pair<List<ResultMap>, List<ResultMap>> runPairUntilStable(
-			Executor<Pair<List<ResultMap>, List<ResultMap>>> executor)
-			throws IOException, AppAdaptor.ExecutionException {
-		log.traceEntry();
-		Pair<List<ResultMap>, List<ResultMap>> results;
-		do {
-			results = executor.exec();
-			log.debug(results);
-		} while (!appAdaptor.isStable(results.getLeft()) || !appAdaptor.isStable(results.getRight()));
-		return log.traceExit(results);
-	}
-
-	private Pair<List<ResultMap>, List<ResultMap>> runRefTest(int mileage) throws AppAdaptor.ExecutionException {
-		var dummyResults = new ArrayList<ResultMap>();
-		var results = new ArrayList<ResultMap>();
+	/**
+	 * Hands the built apps to whichever device is free.
+	 */
+	private void dispatch() {
 		try {
-			if (RUN_DUMMY) {
-				for (int i = 0; i < repeatTest; i++) {
-					dummyResults.add(appAdaptor.run(refApk, refSuffix(mileage, i), true));
+			while (true) {
+				var builtApp = builder.nextBuiltApp();
+				if (builtApp.getPaths().isEmpty()) {
+					outcomes.put(CompletableFuture.completedFuture(new Outcome(builtApp, null, false)));
+					return;
 				}
+				if (builtApp.isDone()) {
+					log.info("Skips {}, tested before the restart", builtApp.getTag());
+					var tag = builtApp.getTag();
+					outcomes.put(CompletableFuture.completedFuture(
+							new Outcome(builtApp, ledger.getRecord(tag), ledger.isAffected(tag))));
+					continue;
+				}
+				var device = freeDevices.take();
+				var future = new CompletableFuture<Outcome>();
+				outcomes.put(future);
+				device.submit(builtApp, future);
 			}
-			appAdaptor.prepare(refApk);
-			for (int i = 0; i < repeatTest; i++) {
-				results.add(appAdaptor.run(refApk, refSuffix(mileage, i)));
+		} catch (IOException e) {
+			outcomes.add(CompletableFuture.failedFuture(e));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@SneakyThrows(InterruptedException.class)
+	private Outcome nextOutcome() throws IOException {
+		try {
+			return outcomes.take().join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
 			}
-		} finally {
-			appAdaptor.cleanup(refApk);
+			throw e;
 		}
-		return Pair.of(dummyResults.subList(discardTest, repeatTest), results.subList(discardTest, repeatTest));
 	}
 
-	private List<ResultMap> runMutTest(String tag) throws AppAdaptor.ExecutionException {
-		var results = new ArrayList<ResultMap>();
+	/**
+	 * Runs the tests on one device.
+	 */
+	private class Device {
+		private final AppAdaptor appAdaptor;
+
+		/**
+		 * Null if there is only one device.
+		 */
+		private final String name;
+
+		/**
+		 * Tests the apps one at a time.
+		 */
+		private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		private final ExecutorService stageRunner = Executors.newCachedThreadPool();
+
+		/**
+		 * Prepares and runs the apps with deadlines.
+		 */
+		private final AsyncAppAdaptor asyncAdaptor;
+
+		private int currIdx = -1;
+
+		private List<ResultMap> refResults;
+
+		/**
+		 * Mileage of {@link #refResults}.
+		 */
+		private int refMileage;
+
+		/**
+		 * Mileage the reference last ran or was probed at.
+		 */
+		private int refCheckMileage;
+
+		/**
+		 * Whether the reference is due to run before the next mutant test, which is postponed while the builds of a
+		 * path are not tested. Since the paths are spread over the devices, each device checks its reference once
+		 * the test has moved on by {@link #REF_RUN_INTERVAL} paths per device, so that the reference runs about as
+		 * often per path, and as often in time on each device, however many devices there are.
+		 */
+		private boolean refDue;
+
+		/**
+		 * Null unless the reference runs adaptively.
+		 */
+		private final RefScheduler refScheduler;
+
+		Device(AppAdaptor appAdaptor, String name) {
+			this.appAdaptor = appAdaptor;
+			this.name = name;
+			var deadlines = new EnumMap<AsyncAppAdaptor.Stage, Duration>(AsyncAppAdaptor.Stage.class);
+			if (TestState.getPrepareTimeout() > 0) {
+				deadlines.put(AsyncAppAdaptor.Stage.PREPARE, Duration.ofSeconds(TestState.getPrepareTimeout()));
+			}
+			if (TestState.getRunTimeout() > 0) {
+				deadlines.put(AsyncAppAdaptor.Stage.RUN, Duration.ofSeconds(TestState.getRunTimeout()));
+			}
+			asyncAdaptor = new ThreadedAsyncAdaptor(appAdaptor, stageRunner, deadlines);
+			if (TestState.isAdaptiveRef() && !interleave) {
+				refScheduler = new RefScheduler(TestState.getRefMaxAge(), TestState.getDriftThreshold(),
+						TestState.getDriftSlack());
+			} else {
+				refScheduler = null;
+			}
+		}
 
-		try {
-			appAdaptor.prepare(tag);
-			for (int i = 0; i < repeatTest; i++) {
-				results.add(appAdaptor.run(tag, String.valueOf(i)));
+		/**
+		 * Tests the app after the current one. While pipelining, it is staged in the meantime.
+		 */
+		void submit(ProjectBuilder.BuiltApp builtApp, CompletableFuture<Outcome> future) {
+			CompletableFuture<Void> staged;
+			if (stageExecutor != null && builtApp.getLog() == null && !builtApp.isEquivalent()) {
+				staged = CompletableFuture.runAsync(() -> stage(builtApp.getTag()), stageExecutor);
+			} else {
+				staged = CompletableFuture.completedFuture(null);
 			}
-		} finally {
-			appAdaptor.cleanup(tag);
+			executor.execute(() -> {
+				try {
+					staged.join();
+					var record = new MutResult(builtApp.getPaths());
+					record.setMileage(builtApp.getPathIdx());
+					boolean affected = test(builtApp, record);
+					future.complete(new Outcome(builtApp, record, affected));
+				} catch (IOException | RuntimeException e) {
+					future.completeExceptionally(e);
+				} finally {
+					freeDevices.add(this);
+				}
+			});
 		}
 
-		return results.subList(discardTest, repeatTest);
-	}
+		private void prepare(String tag) throws AppAdaptor.ExecutionException {
+			await(asyncAdaptor.prepare(tag));
+		}
+
+		private ResultMap run(String tag, String suffix) throws AppAdaptor.ExecutionException {
+			return run(tag, suffix, false);
+		}
+
+		private ResultMap run(String tag, String suffix, boolean dummy) throws AppAdaptor.ExecutionException {
+			return await(asyncAdaptor.run(tag, suffix, dummy));
+		}
+
+		/**
+		 * Falls back to installing the app from the host if it cannot be staged.
+		 */
+		void stage(String tag) {
+			try {
+				appAdaptor.stage(tag);
+			} catch (AppAdaptor.ExecutionException e) {
+				log.warn("Cannot stage {}", tag, e);
+			}
+		}
+
+		/**
+		 * @return whether the mutations failed, or differ from the reference significantly. Only computed in group
+		 * testing mode.
+		 */
+		private boolean test(ProjectBuilder.BuiltApp builtApp, MutResult record) throws IOException {
+			var idx = builtApp.getPathIdx();
+			var mutations = builtApp.getMutations();
+
+			if (idx != currIdx) {
+				currIdx = idx;
+				refDue = !interleave
+						&& (refResults == null || idx - refCheckMileage >= REF_RUN_INTERVAL * devices.size());
+			}
+			record.setDevice(name);
+
+			if (builtApp.getLog() != null) {
+				record.addResults(mutations, MutResult.Status.ABORT_COMPILE, builtApp.getLog());
+				return true;
+			}
+
+			if (builtApp.isEquivalent()) {
+				log.info("Skips {}, identical to the reference", builtApp.getTag());
+				record.addResults(mutations, MutResult.Status.EQUIVALENT);
+				appAdaptor.delete(builtApp.getTag());
+				return false;
+			}
 
-	private Pair<List<ResultMap>, List<ResultMap>> runInterleaveTest(int mileage, String tag)
-			throws AppAdaptor.ExecutionException {
-		var refResults = new ArrayList<ResultMap>();
-		var mutResults = new ArrayList<ResultMap>();
-		for (int i = 0; i < repeatTest; i++) {
+			if (refDue) {
+				refDue = false;
+				refCheckMileage = idx;
+				try {
+					if (refScheduler == null || refScheduler.isExpired() || drifts(idx)) {
+						var results = runPairUntilStable(() -> tryAgainIfFail(() -> runRefTest(idx)));
+						refResults = results.getRight();
+						refMileage = idx;
+						Integer epoch = null;
+						if (refScheduler != null) {
+							refScheduler.startEpoch(idx, refResults);
+							epoch = refScheduler.getEpoch();
+						}
+						synchronized (refResultSerializer) {
+							refResultSerializer.write(
+									new RefResult(idx, name, epoch, null, results.getLeft(), results.getRight()));
+						}
+					}
+				} catch (AppAdaptor.ExecutionException e) {
+					log.fatal("Ref run failed", e);
+					System.exit(1);
+				}
+			}
+			if (refScheduler != null) {
+				record.setRefEpoch(refScheduler.getEpoch());
+			}
+			if (!interleave) {
+				record.setRefMileage(refMileage);
+			}
+
+			boolean affected;
 			try {
-				if (i == 0) {
-					appAdaptor.prepare(refApk);
+				if (interleave) {
+					var results = runPairUntilStable(() ->
+							tryAgainIfFail(() -> runInterleaveTest(idx, builtApp.getTag())));
+					record.addResults(mutations, MutResult.Status.FINISH, results.getLeft(), results.getRight());
+					affected = groupTesting && differs(results.getLeft(), results.getRight());
 				} else {
-					appAdaptor.restoreState(refApk);
+					var results = runUntilStable(() -> tryAgainIfFail(() -> runMutTest(idx, builtApp.getTag())));
+					record.addResults(mutations, MutResult.Status.FINISH, results);
+					affected = groupTesting && differs(refResults, results);
+				}
+			} catch (AppAdaptor.ExecutionException e) {
+				record.addResults(mutations, MutResult.Status.ABORT_EXEC, e.getMessage());
+				affected = true;
+			}
+			appAdaptor.delete(builtApp.getTag());
+			return affected;
+		}
+
+		private List<ResultMap> runUntilStable(Executor<List<ResultMap>> executor)
+				throws IOException, AppAdaptor.ExecutionException {
+			log.traceEntry();
+			List<ResultMap> results;
+			do {
+				results = executor.exec();
+				log.debug(results);
+			} while (stopper == null && !appAdaptor.isStable(results));
+			return log.traceExit(results);
+		}
+
+		private Pair<List<ResultMap>, List<ResultMap>> runPairUntilStable(
+				Executor<Pair<List<ResultMap>, List<ResultMap>>> executor)
+				throws IOException, AppAdaptor.ExecutionException {
+			log.traceEntry();
+			Pair<List<ResultMap>, List<ResultMap>> results;
+			do {
+				results = executor.exec();
+				log.debug(results);
+			} while (stopper == null
+					&& (!appAdaptor.isStable(results.getLeft()) || !appAdaptor.isStable(results.getRight())));
+			return log.traceExit(results);
+		}
+
+		private Pair<List<ResultMap>, List<ResultMap>> runRefTest(int mileage) throws AppAdaptor.ExecutionException {
+			List<ResultMap> dummyResults = new ArrayList<>();
+			var results = new ArrayList<ResultMap>();
+			try {
+				if (RUN_DUMMY) {
+					for (int i = 0; i < repeatTest; i++) {
+						dummyResults.add(run(refApk, refSuffix(mileage, i), true));
+					}
+				}
+				prepare(refApk);
+				for (int i = 0; !isDone(i, null, results); i++) {
+					results.add(run(refApk, refSuffix(mileage, i)));
 				}
-				refResults.add(appAdaptor.run(refApk, refSuffix(mileage, i)));
 			} finally {
 				appAdaptor.cleanup(refApk);
-				if (i != repeatTest - 1) {
-					appAdaptor.saveState(refApk);
+			}
+			if (RUN_DUMMY) {
+				dummyResults = dummyResults.subList(discardTest, repeatTest);
+			}
+			return Pair.of(dummyResults, results.subList(discardTest, results.size()));
+		}
+
+		/**
+		 * Runs the reference once, after the runs to discard, and checks it against the current epoch.
+		 *
+		 * @return whether the reference drifted
+		 */
+		private boolean drifts(int mileage) throws IOException, AppAdaptor.ExecutionException {
+			var result = tryAgainIfFail(() -> {
+				try {
+					prepare(refApk);
+					for (int i = 0; i < discardTest; i++) {
+						run(refApk, probeSuffix(mileage, i));
+					}
+					return run(refApk, probeSuffix(mileage, discardTest));
+				} finally {
+					appAdaptor.cleanup(refApk);
 				}
+			});
+			synchronized (refResultSerializer) {
+				refResultSerializer.write(
+						new RefResult(mileage, name, refScheduler.getEpoch(), true, List.of(), List.of(result)));
 			}
+			return refScheduler.observe(result);
+		}
+
+		/**
+		 * Trials kept before the test restarted take the place of running them again.
+		 */
+		private List<ResultMap> runMutTest(int pathIdx, String tag)
+				throws IOException, AppAdaptor.ExecutionException {
+			var results = new ArrayList<ResultMap>();
+			var resumed = ledger.takeTrials(tag, discardTest);
+
 			try {
-				if (i == 0) {
-					appAdaptor.prepare(tag);
-				} else {
-					appAdaptor.restoreState(tag);
+				prepare(tag);
+				for (int i = 0; !isDone(i, refResults, results); i++) {
+					if (i >= discardTest && i - discardTest < resumed.size()) {
+						results.add(resumed.get(i - discardTest));
+						continue;
+					}
+					var result = run(tag, String.valueOf(i));
+					results.add(result);
+					if (i >= discardTest) {
+						ledger.addTrial(pathIdx, tag, i, result);
+					}
 				}
-				mutResults.add(appAdaptor.run(tag, String.valueOf(i)));
 			} finally {
 				appAdaptor.cleanup(tag);
-				if (i != repeatTest - 1) {
-					appAdaptor.saveState(tag);
+			}
+
+			return results.subList(discardTest, results.size());
+		}
+
+		private Pair<List<ResultMap>, List<ResultMap>> runInterleaveTest(int mileage, String tag)
+				throws AppAdaptor.ExecutionException {
+			var refResults = new ArrayList<ResultMap>();
+			var mutResults = new ArrayList<ResultMap>();
+			for (int i = 0; !isDone(i, kept(refResults), mutResults); i++) {
+				try {
+					if (i == 0) {
+						prepare(refApk);
+					} else {
+						appAdaptor.restoreState(refApk);
+					}
+					refResults.add(run(refApk, refSuffix(mileage, i)));
+				} finally {
+					appAdaptor.cleanup(refApk);
+					if (i != repeatTest - 1 || stopper != null) {
+						appAdaptor.saveState(refApk);
+					}
+				}
+				try {
+					if (i == 0) {
+						prepare(tag);
+					} else {
+						appAdaptor.restoreState(tag);
+					}
+					mutResults.add(run(tag, String.valueOf(i)));
+				} finally {
+					appAdaptor.cleanup(tag);
+					if (i != repeatTest - 1 || stopper != null) {
+						appAdaptor.saveState(tag);
+					}
 				}
 			}
+			return Pair.of(refResults.subList(discardTest, refResults.size()),
+					mutResults.subList(discardTest, mutResults.size()));
+		}
+	}
+
+	/**
+	 * Welch's t-test on each metric, Bonferroni corrected. Too few samples count as a difference.
+	 */
+	private boolean differs(List<ResultMap> ref, List<ResultMap> mut) {
+		if (ref == null || ref.size() < 2 || mut.size() < 2) {
+			return true;
+		}
+		var metrics = mut.get(0).keySet();
+		var tTest = new TTest();
+		for (var m : metrics) {
+			var refValues = ResultMap.column(ref, m);
+			var mutValues = ResultMap.column(mut, m);
+			if (refValues.length < 2 || mutValues.length < 2
+					|| tTest.tTest(refValues, mutValues, groupAlpha / metrics.size())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Cancels the stage if interrupted. A stage past its deadline fails like any other execution.
+	 */
+	@SneakyThrows(InterruptedException.class)
+	private static <T> T await(CompletableFuture<T> future) throws AppAdaptor.ExecutionException {
+		try {
+			return future.get();
+		} catch (java.util.concurrent.ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof AppAdaptor.ExecutionException) {
+				throw (AppAdaptor.ExecutionException) cause;
+			} else if (cause instanceof TimeoutException) {
+				throw new AppAdaptor.ExecutionException("Timed out");
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new CompletionException(cause);
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
 		}
-		return Pair.of(refResults.subList(discardTest, repeatTest), mutResults.subList(discardTest, repeatTest));
+	}
+
+	private <T> T tryAgainIfFail(Executor<T> executor) throws IOException, AppAdaptor.ExecutionException {
+		for (int i = 0; i < RETRY - 1; i++) {
+			try {
+				return executor.exec();
+			} catch (AppAdaptor.ExecutionException e) {
+				log.info("Try again", e);
+			}
+		}
+		return executor.exec();
+	}
+
+	/**
+	 * @param ref reference results to compare with, or null
+	 * @param results including the discarded ones
+	 */
+	private boolean isDone(int trials, List<ResultMap> ref, List<ResultMap> results) {
+		if (stopper == null) {
+			return trials >= repeatTest;
+		}
+		return stopper.decide(ref, kept(results)) != SequentialStopper.Decision.CONTINUE;
+	}
+
+	private List<ResultMap> kept(List<ResultMap> results) {
+		return results.subList(Math.min(discardTest, results.size()), results.size());
 	}
 
 	String refSuffix(int mileage, int trial) {
 		return String.format("%d_%d", mileage, trial);
 	}
 
+	String probeSuffix(int mileage, int trial) {
+		return String.format("%d_probe_%d", mileage, trial);
+	}
+
 	@Override
 	public void close() throws IOException {
 		refResultSerializer.close();
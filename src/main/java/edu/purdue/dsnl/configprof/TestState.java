@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvException;
+import edu.purdue.dsnl.configprof.adaptor.AdaptorType;
 import lombok.Cleanup;
 import lombok.Data;
 import org.apache.commons.lang3.tuple.Pair;
@@ -43,11 +44,34 @@ public class TestState {
 		String project;
 		List<String> sources;
 		LiteralType literalType;
+		AdaptorType adaptor = AdaptorType.ANDROID;
 		boolean supplyMutation = false;
 		Path enumDefinitions;
 		int repeatTest = 5;
 		int discardTest = 0;
 		boolean interleave = false;
+		int batchSize = 1;
+		double groupAlpha = 0.05;
+		int buildSlots = 1;
+		long buildCacheSize = 0;
+		boolean skipEquivalent = true;
+		boolean incrementalBuild = false;
+		int incrementalRelease = 8;
+		boolean bytecodeMutation = false;
+		boolean injection = false;
+		boolean sequential = false;
+		int maxTrials = 30;
+		double sequentialAlpha = 0.05;
+		double ciWidth = 0.05;
+		double equivalenceMargin = 0.02;
+		boolean adaptiveRef = false;
+		long refMaxAge = 1800;
+		double driftThreshold = 5;
+		double driftSlack = 0.5;
+		boolean pipelineInstall = false;
+		boolean binaryResults = false;
+		long prepareTimeout = 0;
+		long runTimeout = 0;
 		boolean enableRpc = false;
 	}
 
@@ -97,10 +121,24 @@ public class TestState {
 		}
 	}
 
+	/**
+	 * @return the paths of the literals to test, whose indices key the override values of literal injection
+	 */
+	public static List<String> getTestedLiteralPaths() throws IOException {
+		if (conf.supplyMutation) {
+			return getLiteralPathsWithMutations().stream().map(Pair::getLeft).collect(Collectors.toList());
+		}
+		return getLiteralPaths();
+	}
+
 	public static LiteralType getLiteralType() {
 		return conf.literalType;
 	}
 
+	public static AdaptorType getAdaptorType() {
+		return conf.adaptor;
+	}
+
 	public static Path getEnumDefinitionFile() {
 		return conf.enumDefinitions;
 	}
@@ -117,6 +155,115 @@ public class TestState {
 		return conf.interleave;
 	}
 
+	static int getBatchSize() {
+		return conf.batchSize;
+	}
+
+	static double getGroupAlpha() {
+		return conf.groupAlpha;
+	}
+
+	static int getBuildSlots() {
+		return conf.buildSlots;
+	}
+
+	/**
+	 * @return size limit of the build cache in MiB, 0 if disabled
+	 */
+	static long getBuildCacheSize() {
+		return conf.buildCacheSize;
+	}
+
+	static boolean isEquivalentSkipped() {
+		return conf.skipEquivalent;
+	}
+
+	static boolean isIncrementalBuild() {
+		return conf.incrementalBuild;
+	}
+
+	/**
+	 * @return Java release the mutated sources are compiled for in incremental builds
+	 */
+	static int getIncrementalRelease() {
+		return conf.incrementalRelease;
+	}
+
+	static boolean isBytecodeMutation() {
+		return conf.bytecodeMutation;
+	}
+
+	public static boolean isInjection() {
+		return conf.injection;
+	}
+
+	static boolean isSequential() {
+		return conf.sequential;
+	}
+
+	static int getMaxTrials() {
+		return conf.maxTrials;
+	}
+
+	static double getSequentialAlpha() {
+		return conf.sequentialAlpha;
+	}
+
+	/**
+	 * @return largest half-width of the confidence interval of a metric mean, relative to the mean
+	 */
+	static double getCiWidth() {
+		return conf.ciWidth;
+	}
+
+	/**
+	 * @return largest difference from the reference mean for a mutant to be equivalent, relative to the mean
+	 */
+	static double getEquivalenceMargin() {
+		return conf.equivalenceMargin;
+	}
+
+	static boolean isAdaptiveRef() {
+		return conf.adaptiveRef;
+	}
+
+	/**
+	 * @return longest time in seconds the reference results are compared with before the reference runs again
+	 */
+	static long getRefMaxAge() {
+		return conf.refMaxAge;
+	}
+
+	static double getDriftThreshold() {
+		return conf.driftThreshold;
+	}
+
+	static double getDriftSlack() {
+		return conf.driftSlack;
+	}
+
+	static boolean isPipelineInstall() {
+		return conf.pipelineInstall;
+	}
+
+	static boolean isBinaryResults() {
+		return conf.binaryResults;
+	}
+
+	/**
+	 * @return longest time in seconds to prepare an app, 0 for no limit
+	 */
+	static long getPrepareTimeout() {
+		return conf.prepareTimeout;
+	}
+
+	/**
+	 * @return longest time in seconds of a run, 0 for no limit
+	 */
+	static long getRunTimeout() {
+		return conf.runTimeout;
+	}
+
 	public static boolean isRpcEnabled() {
 		return conf.enableRpc;
 	}
@@ -0,0 +1,34 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+import edu.purdue.dsnl.configprof.TestState;
+
+import java.io.IOException;
+import java.util.List;
+
+public class AdaptorFactory {
+	private AdaptorFactory() {}
+
+	/**
+	 * @return one adaptor per device to test on
+	 */
+	public static List<AppAdaptor> createPool() throws IOException {
+		return switch (TestState.getAdaptorType()) {
+			case ANDROID -> AndroidAdaptor.createPool();
+			case HADOOP -> List.of(new HadoopAdaptor());
+			case JMH -> List.of(new JmhAdaptor());
+			case SIMULATED -> SimulatedAdaptor.createPool();
+		};
+	}
+
+	/**
+	 * @return an adaptor to build with
+	 */
+	public static AppAdaptor createAdaptor() throws IOException {
+		return switch (TestState.getAdaptorType()) {
+			case ANDROID -> new AndroidAdaptor();
+			case HADOOP -> new HadoopAdaptor();
+			case JMH -> new JmhAdaptor();
+			case SIMULATED -> new SimulatedAdaptor();
+		};
+	}
+}
@@ -0,0 +1,8 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+public enum AdaptorType {
+	ANDROID,
+	HADOOP,
+	JMH,
+	SIMULATED,
+}
@@ -1,18 +1,22 @@
 package edu.purdue.dsnl.configprof.adaptor;
 
+import edu.purdue.dsnl.configprof.Digests;
 import edu.purdue.dsnl.configprof.TestState;
 import edu.purdue.dsnl.configprof.result.ResultMap;
 import lombok.Data;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
@@ -24,10 +28,32 @@ public class AndroidAdaptor implements AppAdaptor {
 
 	private static final Path LOGCAT_PATH = Path.of("logcat");
 
+	private static final String OVERRIDE_LOCATION = "/data/local/tmp/configprof-overrides.properties";
+
+	private static final String STAGE_PREFIX = "/data/local/tmp/configprof-";
+
 	private final List<String> generalArg = new ArrayList<>();
 
 	private final Conf conf;
 
+	private final String deviceSerial;
+
+	private final Path ftracePath;
+
+	private final Path logcatPath;
+
+	/**
+	 * Tags of the builds pushed to the device.
+	 */
+	private final Set<String> staged = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Null unless {@link Conf#session} is set.
+	 */
+	private final DriverSession session;
+
+	private final FtraceReducer ftraceReducer;
+
 	@Data
 	public static class Conf {
 		private String driverScript;
@@ -35,62 +61,181 @@ public class AndroidAdaptor implements AppAdaptor {
 		private String deviceSerial = null;
 		private int appiumPort = -1;
 		private double stableThreshold = 0;
+		/**
+		 * Longest time in seconds an adb or driver script command may take before it is killed, 0 for no limit.
+		 */
+		private long commandTimeout = 0;
+		/**
+		 * Keeps one driver script running per device for the warmup, the runs and the app state, instead of starting
+		 * it for each of them. The script must support {@code --session}, see {@link DriverSession}.
+		 */
+		private boolean session = false;
+		private FtraceReducer.Conf ftrace = new FtraceReducer.Conf();
+		/**
+		 * Overrides {@link #deviceSerial} and {@link #appiumPort} to test on several devices at once.
+		 */
+		private List<Device> devices = List.of();
+	}
+
+	@Data
+	public static class Device {
+		/**
+		 * Required, to address the device with adb.
+		 */
+		private String serial;
+		private int appiumPort = -1;
 	}
 
 	public AndroidAdaptor() throws IOException {
-		conf = TestState.getSection("android", Conf.class);
-		if (conf == null) {
-			throw new IOException("No Android configuration");
+		this(loadConf(), null);
+	}
+
+	/**
+	 * @param device null to use the device of the top-level configuration
+	 */
+	private AndroidAdaptor(Conf conf, Device device) {
+		this.conf = conf;
+		int appiumPort;
+		if (device != null) {
+			deviceSerial = device.serial;
+			appiumPort = device.appiumPort;
+			ftracePath = FTRACE_PATH.resolve(device.serial);
+			logcatPath = LOGCAT_PATH.resolve(device.serial);
+		} else {
+			deviceSerial = conf.deviceSerial;
+			appiumPort = conf.appiumPort;
+			ftracePath = FTRACE_PATH;
+			logcatPath = LOGCAT_PATH;
 		}
-		if (conf.deviceSerial != null) {
+		if (deviceSerial != null) {
 			generalArg.add("--udid");
-			generalArg.add(conf.deviceSerial);
+			generalArg.add(deviceSerial);
 		}
-		if (conf.appiumPort > 0) {
+		if (appiumPort > 0) {
 			generalArg.add("--server-port");
-			generalArg.add(String.valueOf(conf.appiumPort));
+			generalArg.add(String.valueOf(appiumPort));
 		}
 		generalArg.add(Path.of(conf.uiScript).toAbsolutePath().toString());
+		session = conf.session ? new DriverSession(conf.driverScript, generalArg, getTimeout()) : null;
+		ftraceReducer = new FtraceReducer(conf.ftrace);
 
 		BUILD_DIR.toFile().mkdir();
-		FTRACE_PATH.toFile().mkdir();
-		LOGCAT_PATH.toFile().mkdir();
+		ftracePath.toFile().mkdirs();
+		logcatPath.toFile().mkdirs();
+	}
+
+	/**
+	 * @return one adaptor per configured device
+	 */
+	public static List<AppAdaptor> createPool() throws IOException {
+		var conf = loadConf();
+		if (conf.devices.isEmpty()) {
+			return List.of(new AndroidAdaptor(conf, null));
+		}
+		var pool = new ArrayList<AppAdaptor>();
+		for (int i = 0; i < conf.devices.size(); i++) {
+			var d = conf.devices.get(i);
+			if (d.serial == null || d.serial.isBlank()) {
+				throw new IOException("No serial for Android device " + i + " in devices: " + d);
+			}
+			pool.add(new AndroidAdaptor(conf, d));
+		}
+		return pool;
+	}
+
+	private static Conf loadConf() throws IOException {
+		var conf = TestState.getSection("android", Conf.class);
+		if (conf == null) {
+			throw new IOException("No Android configuration");
+		}
+		return conf;
 	}
 
-	@SneakyThrows(InterruptedException.class)
 	@Override
 	public void build(Path project, String tag) throws BuildException, IOException {
-		var builder = new ProcessBuilder(project.resolve("build.sh").toAbsolutePath().toString());
-		var process = builder.directory(project.toFile()).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
-		if (process.waitFor() != 0) {
-			throw new BuildException("");
+		ExecUtil.Result result;
+		try {
+			var builder = new ProcessBuilder(project.resolve("build.sh").toAbsolutePath().toString())
+					.directory(project.toFile());
+			result = ExecUtil.run(builder, null);
+		} catch (ExecutionException e) {
+			throw new BuildException(e.getMessage());
+		}
+		if (result.getExitValue() != 0) {
+			throw new BuildException(result.getError().isBlank() ? result.getOutput() : result.getError());
 		}
 
 		Files.copy(project.resolve(OUTPUT_APK), getPath(tag), REPLACE_EXISTING);
 	}
 
+	@Override
+	public List<Path> getBuildInputs(Path project) {
+		return List.of(project.resolve("build.sh"));
+	}
+
+	/**
+	 * Pushes the APK to the device, so that installing it does not wait for the transfer.
+	 */
+	@Override
+	public void stage(String tag) throws ExecutionException {
+		var command = adbCommand();
+		command.add("push");
+		command.add(getPath(tag).toAbsolutePath().toString());
+		command.add(getStagedPath(tag));
+		ExecUtil.exec(command, getTimeout());
+		staged.add(tag);
+	}
+
 	@Override
 	public void prepare(String tag) throws ExecutionException {
-		var command = new ArrayList<String>();
-		command.add("adb");
-		if (conf.deviceSerial != null) {
-			command.add("-s");
-			command.add(conf.deviceSerial);
+		var command = adbCommand();
+		if (staged.contains(tag)) {
+			command.addAll(List.of("shell", "pm", "install", "-r", getStagedPath(tag)));
+		} else {
+			command.add("install");
+			command.add(getPath(tag).toAbsolutePath().toString());
 		}
-		command.add("install");
-		command.add(getPath(tag).toAbsolutePath().toString());
-		ExecUtil.execOutput(command);
+		ExecUtil.execOutput(command, getTimeout());
 
-		command.clear();
-		command.add(conf.driverScript);
-		command.add("--warmup");
-		command.addAll(generalArg);
-		var output = ExecUtil.execOutput(command);
+		var args = List.of("--warmup");
+		var output = session != null ? String.join("\n", session.request(args))
+				: ExecUtil.execOutput(driverCommand(args), getTimeout());
 		if (!output.isBlank()) {
 			throw new ExecutionException(output);
 		}
 	}
 
+	@Override
+	public String getDevice() {
+		return deviceSerial;
+	}
+
+	@Override
+	public String getOverrideLocation() {
+		return OVERRIDE_LOCATION;
+	}
+
+	/**
+	 * Pushes the override file to the device. The app must be able to read it, e.g. as a debuggable build.
+	 */
+	@SneakyThrows(IOException.class)
+	@Override
+	public void setOverrides(Properties overrides) throws ExecutionException {
+		var file = Files.createTempFile("overrides", ".properties");
+		try {
+			try (var writer = Files.newBufferedWriter(file)) {
+				overrides.store(writer, null);
+			}
+			var command = adbCommand();
+			command.add("push");
+			command.add(file.toString());
+			command.add(OVERRIDE_LOCATION);
+			ExecUtil.exec(command, getTimeout());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
 	@Override
 	public ResultMap run(String tag, String suffix, boolean dummy) throws ExecutionException {
 		String id = tag + '_' + suffix;
@@ -99,26 +244,43 @@ public class AndroidAdaptor implements AppAdaptor {
 		}
 
 		var command = new ArrayList<String>();
-		command.add(conf.driverScript);
 		command.add("--ftrace");
 		if (dummy) {
 			command.add("--dummy");
 		}
 		command.add("--ftrace-separate");
 		command.add("--ftrace-file");
-		command.add(FTRACE_PATH.resolve(id).toAbsolutePath().toString());
+		var ftrace = ftracePath.resolve(id).toAbsolutePath();
+		var logcat = logcatPath.resolve(id + ".log").toAbsolutePath();
+		command.add(ftrace.toString());
 		command.add("--logcat");
-		command.add(LOGCAT_PATH.resolve(id + ".log").toAbsolutePath().toString());
-		command.addAll(generalArg);
-		var output = ExecUtil.execOutput(command);
+		command.add(logcat.toString());
+		ResultMap ret;
+		if (session == null) {
+			ret = ExecUtil.execResults(driverCommand(command), getTimeout());
+		} else {
+			var output = session.request(command);
+			ret = new ResultMap();
+			for (var l : output) {
+				if (!ExecUtil.parseResult(l, ret)) {
+					throw new ExecutionException(String.join("\n", output));
+				}
+			}
+		}
+
+		if (conf.ftrace.isReduce()) {
+			try {
+				ret.putAll(ftraceReducer.reduce(ftrace));
+			} catch (IOException e) {
+				throw new ExecutionException("Cannot reduce " + ftrace + ": " + e);
+			}
+		}
 		try {
-			var ret = new ResultMap();
-			output.lines().map(l -> l.split(" ")).map(l -> Pair.of(l[0], Double.parseDouble(l[1])))
-					.forEach(l -> ret.put(l.getKey(), l.getValue()));
-			return ret;
-		} catch (NumberFormatException e) {
-			throw new AppAdaptor.ExecutionException(output);
+			ftraceReducer.retain(List.of(ftrace, logcat));
+		} catch (IOException e) {
+			log.warn("Cannot apply the retention policy to {}", id, e);
 		}
+		return ret;
 	}
 
 	@Override
@@ -132,16 +294,20 @@ public class AndroidAdaptor implements AppAdaptor {
 	}
 
 	private void handleState(String tag, boolean restore) throws ExecutionException {
-		var command = new ArrayList<String>();
-		command.add(conf.driverScript);
-		if (restore) {
-			command.add("--restore-state");
+		var args = List.of(restore ? "--restore-state" : "--save-state", tag);
+		if (session != null) {
+			session.request(args);
 		} else {
-			command.add("--save-state");
+			ExecUtil.exec(driverCommand(args), getTimeout());
 		}
-		command.add(tag);
+	}
+
+	private List<String> driverCommand(List<String> args) {
+		var command = new ArrayList<String>();
+		command.add(conf.driverScript);
+		command.addAll(args);
 		command.addAll(generalArg);
-		ExecUtil.exec(command);
+		return command;
 	}
 
 	@Override
@@ -149,9 +315,43 @@ public class AndroidAdaptor implements AppAdaptor {
 		return BUILD_DIR.resolve(tag + ".apk");
 	}
 
+	@Override
+	public String fingerprint(String tag) throws IOException {
+		var digest = Digests.create();
+		Digests.updateZipEntries(digest, getPath(tag), n -> n.matches("classes\\d*\\.dex"));
+		return Digests.toHex(digest.digest());
+	}
+
 	@Override
 	public void delete(String tag) throws IOException {
 		Files.delete(getPath(tag));
+		if (staged.remove(tag)) {
+			try {
+				var command = adbCommand();
+				command.addAll(List.of("shell", "rm", "-f", getStagedPath(tag)));
+				ExecUtil.exec(command, getTimeout());
+			} catch (ExecutionException e) {
+				log.warn("Cannot delete staged {}", tag, e);
+			}
+		}
+	}
+
+	private String getStagedPath(String tag) {
+		return STAGE_PREFIX + tag + ".apk";
+	}
+
+	private Duration getTimeout() {
+		return conf.commandTimeout > 0 ? Duration.ofSeconds(conf.commandTimeout) : null;
+	}
+
+	private List<String> adbCommand() {
+		var command = new ArrayList<String>();
+		command.add("adb");
+		if (deviceSerial != null) {
+			command.add("-s");
+			command.add(deviceSerial);
+		}
+		return command;
 	}
 
 	@Override
@@ -160,8 +360,7 @@ public class AndroidAdaptor implements AppAdaptor {
 			return true;
 		}
 		var stats = new SummaryStatistics();
-		results.stream().mapToDouble(r -> r.values().stream().mapToDouble(Number::doubleValue).sum())
-				.forEach(stats::addValue);
+		results.stream().mapToDouble(ResultMap::sum).forEach(stats::addValue);
 		log.debug("results = {}, mean = {}, stdev = {}, threshold = {}",
 				results, stats.getMean(), stats.getStandardDeviation(), conf.stableThreshold);
 		return stats.getStandardDeviation() <= conf.stableThreshold * stats.getMean();
@@ -5,6 +5,8 @@ import edu.purdue.dsnl.configprof.result.ResultMap;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 public interface AppAdaptor {
 	Path BUILD_DIR = Path.of("build");
@@ -31,6 +33,19 @@ public interface AppAdaptor {
 
 	void build(Path project, String tag) throws BuildException, IOException;
 
+	/**
+	 * Files other than the Java sources that determine the build output, such as build scripts.
+	 */
+	default List<Path> getBuildInputs(Path project) {
+		return List.of();
+	}
+
+	/**
+	 * Moves a build closer to where it runs ahead of {@link #prepare}, possibly while another build is being tested
+	 * on the same device, so it must not do anything beyond copying.
+	 */
+	default void stage(String tag) throws ExecutionException {}
+
 	void prepare(String tag) throws ExecutionException;
 
 	default ResultMap run(String tag, String suffix) throws ExecutionException {
@@ -47,8 +62,69 @@ public interface AppAdaptor {
 
 	Path getPath(String tag);
 
+	/**
+	 * Libraries and classes of a build, to compile mutated sources against it.
+	 *
+	 * @return the classpath, or null if builds cannot be patched
+	 */
+	default List<Path> getClasspath(String refTag) throws IOException {
+		return null;
+	}
+
+	/**
+	 * @param packageDir e.g. {@code org/example}
+	 * @return class files of a build in a package by their names in a jar, or null if not supported
+	 */
+	default Map<String, byte[]> getClasses(String tag, String packageDir) throws IOException {
+		return null;
+	}
+
+	/**
+	 * Creates the build of {@code tag} as a copy of the build of {@code refTag}, with some of its classes replaced.
+	 *
+	 * @param classes class files by their names in a jar
+	 * @return false if not supported, in which case the build is made in full
+	 */
+	default boolean patch(String refTag, String tag, Map<String, byte[]> classes) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Literal injection: where the app reads the override values of the injected literals from.
+	 *
+	 * @return the path of the override file as seen by the app, or null if not supported
+	 */
+	default String getOverrideLocation() {
+		return null;
+	}
+
+	/**
+	 * Literal injection: sets the values the injected literals take when the app starts next. Only called on
+	 * adaptors with an {@link #getOverrideLocation() override location}, so does nothing by default.
+	 *
+	 * @param overrides values by literal index, empty for the original values
+	 */
+	default void setOverrides(Properties overrides) throws ExecutionException {}
+
+	/**
+	 * Hashes the compiled code of a build, leaving out anything that changes between identical builds, such as
+	 * timestamps and signatures. Builds with the same fingerprint behave the same and need not be tested twice.
+	 *
+	 * @return the fingerprint, or null if not supported
+	 */
+	default String fingerprint(String tag) throws IOException {
+		return null;
+	}
+
 	void delete(String tag) throws IOException;
 
+	/**
+	 * @return name of the device the app runs on, or null if not applicable
+	 */
+	default String getDevice() {
+		return null;
+	}
+
 	default boolean isStable(List<ResultMap> results) {
 		return true;
 	}
@@ -0,0 +1,31 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+import edu.purdue.dsnl.configprof.result.ResultMap;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link AppAdaptor}. The futures complete exceptionally with the exceptions the blocking
+ * methods throw, or with a {@link java.util.concurrent.TimeoutException} past the deadline of the stage. Cancelling a
+ * future, or its deadline passing, stops the work behind it.
+ */
+public interface AsyncAppAdaptor {
+	enum Stage {
+		BUILD,
+		PREPARE,
+		RUN,
+		CLEANUP,
+		DELETE,
+	}
+
+	CompletableFuture<Void> build(Path project, String tag);
+
+	CompletableFuture<Void> prepare(String tag);
+
+	CompletableFuture<ResultMap> run(String tag, String suffix, boolean dummy);
+
+	CompletableFuture<Void> cleanup(String tag);
+
+	CompletableFuture<Void> delete(String tag);
+}
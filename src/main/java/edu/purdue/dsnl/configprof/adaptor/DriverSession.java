@@ -0,0 +1,189 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A driver script kept running across commands, so that the interpreter and the Appium session start only once.
+ * <p>
+ * The script is started with {@code --session} and reads one request per line from its standard input: the options it
+ * takes for a single command, separated by tabs. It answers on its standard output with any number of output lines,
+ * followed by a line of {@code OK}, or {@code ERR} and a message. It exits at the end of its input. A session that
+ * fails to answer in time, or exits, is killed and started again for the next request.
+ */
+@Log4j2
+class DriverSession implements Closeable {
+	private static final String SESSION_ARG = "--session";
+
+	private static final String OK = "OK";
+
+	private static final String ERR = "ERR";
+
+	private final List<String> command;
+
+	private final Duration timeout;
+
+	/**
+	 * Volatile for the shutdown hook, which must not wait for a request to finish.
+	 */
+	private volatile Process process;
+
+	private BufferedWriter writer;
+
+	/**
+	 * Output lines of the running process, then an empty {@link Optional} at its end.
+	 */
+	private BlockingQueue<Optional<String>> lines;
+
+	/**
+	 * @param driverArgs arguments the script takes for every command, such as the device
+	 * @param timeout null for no limit on each request
+	 */
+	DriverSession(String driverScript, List<String> driverArgs, Duration timeout) {
+		command = new ArrayList<>();
+		command.add(driverScript);
+		command.add(SESSION_ARG);
+		command.addAll(driverArgs);
+		this.timeout = timeout;
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			var p = process;
+			if (p != null) {
+				stop(p);
+			}
+		}));
+	}
+
+	/**
+	 * @param args options of the command, as if the script were run for it alone
+	 * @return the output lines of the command
+	 * @throws AppAdaptor.ExecutionException with the message and the output if the command fails
+	 */
+	@SneakyThrows(InterruptedException.class)
+	synchronized List<String> request(List<String> args) throws AppAdaptor.ExecutionException {
+		long start = System.nanoTime();
+		try {
+			if (process == null) {
+				start();
+			}
+			writer.write(String.join("\t", args));
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			kill();
+			throw new AppAdaptor.ExecutionException("Driver session unavailable: " + e);
+		}
+
+		var output = new ArrayList<String>();
+		while (true) {
+			Optional<String> line;
+			try {
+				if (timeout == null) {
+					line = lines.take();
+				} else {
+					long remaining = timeout.toNanos() - (System.nanoTime() - start);
+					line = lines.poll(remaining, TimeUnit.NANOSECONDS);
+				}
+			} catch (InterruptedException e) {
+				kill();
+				throw e;
+			}
+			if (line == null) {
+				kill();
+				throw new AppAdaptor.ExecutionException(String.format("Timed out after %d ms: %s\n%s",
+						(System.nanoTime() - start) / 1_000_000, args, String.join("\n", output)));
+			}
+			if (line.isEmpty()) {
+				kill();
+				throw new AppAdaptor.ExecutionException("Driver session exited: " + String.join("\n", output));
+			}
+			var l = line.get();
+			if (l.equals(OK)) {
+				log.debug("{} took {} ms", args, (System.nanoTime() - start) / 1_000_000);
+				return output;
+			}
+			if (l.equals(ERR) || l.startsWith(ERR + ' ')) {
+				output.add(0, l.substring(ERR.length()).strip());
+				throw new AppAdaptor.ExecutionException(String.join("\n", output));
+			}
+			output.add(l);
+		}
+	}
+
+	private void start() throws IOException {
+		process = new ProcessBuilder(command).start();
+		writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+		var queue = new LinkedBlockingQueue<Optional<String>>();
+		lines = queue;
+		drain(process.getInputStream(), l -> queue.add(Optional.of(l)), () -> queue.add(Optional.empty()));
+		drain(process.getErrorStream(), l -> log.debug("Driver session: {}", l), () -> {});
+		log.info("Started driver session {}", command);
+	}
+
+	private static void drain(InputStream in, Consumer<String> lineHandler, Runnable endHandler) {
+		var thread = new Thread(() -> {
+			try (var reader = new BufferedReader(new InputStreamReader(in))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					lineHandler.accept(line);
+				}
+			} catch (IOException e) {
+				log.debug("Driver session output closed", e);
+			} finally {
+				endHandler.run();
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void kill() {
+		if (process != null) {
+			ExecUtil.destroy(process);
+		}
+		process = null;
+		writer = null;
+		lines = null;
+	}
+
+	/**
+	 * Ends the input of the script, and kills it and its descendants if it does not exit shortly.
+	 */
+	@Override
+	public synchronized void close() {
+		if (process != null) {
+			stop(process);
+			process = null;
+			writer = null;
+			lines = null;
+		}
+	}
+
+	private static void stop(Process process) {
+		try {
+			process.getOutputStream().close();
+		} catch (IOException e) {
+			log.debug("Cannot close driver session input", e);
+		}
+		try {
+			ExecUtil.waitFor(process, 5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
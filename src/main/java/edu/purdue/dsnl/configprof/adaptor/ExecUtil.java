@@ -1,33 +1,194 @@
 package edu.purdue.dsnl.configprof.adaptor;
 
+import edu.purdue.dsnl.configprof.result.ResultMap;
 import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+@Log4j2
 class ExecUtil {
+	/**
+	 * How long to keep reading the output after the process exits, in case its descendants still hold the pipes.
+	 */
+	private static final long DRAIN_MILLIS = 5000;
+
 	private ExecUtil() {}
 
+	@Value
+	static class Result {
+		int exitValue;
+		String output;
+		String error;
+		Duration duration;
+	}
+
 	static void exec(String... command) throws AppAdaptor.ExecutionException {
 		exec(Arrays.asList(command));
 	}
 
-	@SneakyThrows({InterruptedException.class, IOException.class})
 	static void exec(List<String> command) throws AppAdaptor.ExecutionException {
-		var processBuilder = new ProcessBuilder(command);
-		processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
-		var process = processBuilder.start();
-		int ret = process.waitFor();
-		if (ret != 0) {
-			throw new AppAdaptor.ExecutionException(new String(process.getErrorStream().readAllBytes()));
+		exec(command, null);
+	}
+
+	/**
+	 * @param timeout null for no limit
+	 */
+	static void exec(List<String> command, Duration timeout) throws AppAdaptor.ExecutionException {
+		var result = run(new ProcessBuilder(command), timeout);
+		if (result.exitValue != 0) {
+			throw new AppAdaptor.ExecutionException(result.error);
+		}
+	}
+
+	static String execOutput(List<String> command) throws AppAdaptor.ExecutionException {
+		return execOutput(command, null);
+	}
+
+	/**
+	 * @param timeout null for no limit
+	 * @return the output and error, interleaved
+	 */
+	static String execOutput(List<String> command, Duration timeout) throws AppAdaptor.ExecutionException {
+		return run(new ProcessBuilder(command).redirectErrorStream(true), timeout).output;
+	}
+
+	/**
+	 * Parses the output, one {@code metric value} pair per line.
+	 *
+	 * @param timeout null for no limit
+	 * @throws AppAdaptor.ExecutionException with the output if any line is not such a pair
+	 */
+	static ResultMap execResults(List<String> command, Duration timeout) throws AppAdaptor.ExecutionException {
+		var output = run(new ProcessBuilder(command).redirectErrorStream(true), timeout).output;
+		var results = new ResultMap();
+		for (var line : output.split("\n")) {
+			if (!parseResult(line, results)) {
+				throw new AppAdaptor.ExecutionException(output);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Puts a {@code metric value} pair into the results, skipping blank lines.
+	 *
+	 * @return whether the line is such a pair, with a value other than NaN, or blank
+	 */
+	static boolean parseResult(String line, ResultMap results) {
+		if (line.isBlank()) {
+			return true;
+		}
+		var parts = line.split(" ");
+		try {
+			results.put(parts[0], Double.parseDouble(parts[1]));
+			return true;
+		} catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Runs a command, reading its output and error as they are written, so that it never blocks on a full pipe.
+	 *
+	 * @param timeout null for no limit, after which the process and its descendants are killed
+	 */
+	@SneakyThrows(InterruptedException.class)
+	static Result run(ProcessBuilder builder, Duration timeout) throws AppAdaptor.ExecutionException {
+		long start = System.nanoTime();
+		Process process;
+		try {
+			process = builder.start();
+		} catch (IOException e) {
+			throw new AppAdaptor.ExecutionException(e.toString());
+		}
+		var output = new StringBuilder();
+		var error = new StringBuilder();
+		var outputReader = drain(process.getInputStream(), output);
+		var errorReader = drain(process.getErrorStream(), error);
+
+		boolean exited = true;
+		if (timeout == null) {
+			waitFor(process);
+		} else {
+			exited = waitFor(process, timeout.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		outputReader.join(DRAIN_MILLIS);
+		errorReader.join(DRAIN_MILLIS);
+		var duration = Duration.ofNanos(System.nanoTime() - start);
+		log.debug("{} took {} ms", builder.command(), duration.toMillis());
+		if (!exited) {
+			throw new AppAdaptor.ExecutionException(
+					String.format("Timed out after %d ms: %s\n%s", duration.toMillis(), builder.command(), error));
+		}
+		synchronized (output) {
+			synchronized (error) {
+				return new Result(process.exitValue(), output.toString(), error.toString(), duration);
+			}
+		}
+	}
+
+	private static Thread drain(InputStream in, StringBuilder sink) {
+		var thread = new Thread(() -> {
+			try (var reader = new BufferedReader(new InputStreamReader(in))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					synchronized (sink) {
+						sink.append(line).append('\n');
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Kills the process and its descendants if interrupted, so that a cancelled stage leaves nothing running.
+	 *
+	 * @return the exit value
+	 */
+	static int waitFor(Process process) throws InterruptedException {
+		try {
+			return process.waitFor();
+		} catch (InterruptedException e) {
+			destroy(process);
+			throw e;
+		}
+	}
+
+	/**
+	 * Kills the process and its descendants if interrupted or timed out.
+	 *
+	 * @return whether the process exited in time
+	 */
+	static boolean waitFor(Process process, long timeout, TimeUnit unit) throws InterruptedException {
+		try {
+			if (process.waitFor(timeout, unit)) {
+				return true;
+			}
+		} catch (InterruptedException e) {
+			destroy(process);
+			throw e;
 		}
+		destroy(process);
+		return false;
 	}
 
-	@SneakyThrows({InterruptedException.class, IOException.class})
-	static String execOutput(List<String> command) {
-		var process = new ProcessBuilder(command).redirectErrorStream(true).start();
-		process.waitFor();
-		return new String(process.getInputStream().readAllBytes());
+	static void destroy(Process process) {
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroyForcibly();
 	}
 }
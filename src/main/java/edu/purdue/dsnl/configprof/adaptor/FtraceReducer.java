@@ -0,0 +1,376 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+import edu.purdue.dsnl.configprof.result.ResultMap;
+import lombok.Data;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reduces an ftrace text trace to the time each CPU spends at each frequency and in each idle state, and the energy
+ * of that under a power model, reading the trace through memory-mapped windows without decoding it into strings. Only
+ * the {@code cpu_frequency} and {@code cpu_idle} events are used; the time a CPU is active before its first frequency
+ * event is not counted. The events of a per-CPU trace are merged by timestamp before they are integrated, since the
+ * event of one CPU may be logged in the buffer of another.
+ */
+@Log4j2
+public class FtraceReducer {
+	private static final long WINDOW = 64 << 20;
+
+	/**
+	 * Between the timestamp and the event name, the first in a line unless a task name contains it.
+	 */
+	private static final byte[] SEPARATOR = ": ".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] FREQUENCY_EVENT = ": cpu_frequency: ".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] IDLE_EVENT = ": cpu_idle: ".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] STATE = "state=".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] CPU_ID = "cpu_id=".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * {@code cpu_idle} state of leaving idle, -1 as unsigned 32 bits.
+	 */
+	private static final long IDLE_EXIT = 4294967295L;
+
+	private static final String PREFIX = "cpu";
+
+	private final Conf conf;
+
+	public enum Retention {
+		KEEP,
+		COMPRESS,
+		DELETE,
+	}
+
+	@Data
+	public static class Conf {
+		/**
+		 * Reduce the ftrace of each run into its results.
+		 */
+		private boolean reduce = false;
+		/**
+		 * Also report the seconds at each frequency and in each idle state, besides the energy.
+		 */
+		private boolean residency = false;
+		/**
+		 * Power in mW of each CPU at each frequency in kHz while not idle. Missing entries draw no power.
+		 */
+		private Map<Integer, Map<Long, Double>> activePower = Map.of();
+		/**
+		 * Power in mW of each CPU in each idle state.
+		 */
+		private Map<Integer, Map<Integer, Double>> idlePower = Map.of();
+		/**
+		 * What to do with the ftrace and logcat output of a run once it succeeds.
+		 */
+		private Retention retention = Retention.KEEP;
+	}
+
+	/**
+	 * The events of one file, in file order.
+	 */
+	private static class Events {
+		double[] timestamps = new double[1024];
+		int[] cpus = new int[1024];
+		long[] states = new long[1024];
+		boolean[] idle = new boolean[1024];
+		int size;
+
+		void add(double timestamp, int cpu, long state, boolean isIdle) {
+			if (size == timestamps.length) {
+				int capacity = size * 2;
+				timestamps = Arrays.copyOf(timestamps, capacity);
+				cpus = Arrays.copyOf(cpus, capacity);
+				states = Arrays.copyOf(states, capacity);
+				idle = Arrays.copyOf(idle, capacity);
+			}
+			timestamps[size] = timestamp;
+			cpus[size] = cpu;
+			states[size] = state;
+			idle[size] = isIdle;
+			size++;
+		}
+	}
+
+	private static class CpuState {
+		long frequency = -1;
+		/**
+		 * -1 if not idle.
+		 */
+		int idleState = -1;
+		double since = Double.NaN;
+		final Map<Long, Double> frequencyTime = new TreeMap<>();
+		final Map<Integer, Double> idleTime = new TreeMap<>();
+
+		void advance(double timestamp) {
+			if (!Double.isNaN(since) && timestamp > since) {
+				double elapsed = timestamp - since;
+				if (idleState >= 0) {
+					idleTime.merge(idleState, elapsed, Double::sum);
+				} else if (frequency >= 0) {
+					frequencyTime.merge(frequency, elapsed, Double::sum);
+				}
+			}
+			since = timestamp;
+		}
+	}
+
+	public FtraceReducer(Conf conf) {
+		this.conf = conf;
+	}
+
+	/**
+	 * @param trace a trace file, or a directory of them, e.g. one per CPU
+	 * @return {@code cpu<n>.energy} in mJ for each CPU, and if enabled, {@code cpu<n>.freq<kHz>} and
+	 * {@code cpu<n>.idle<state>} in seconds
+	 */
+	public ResultMap reduce(Path trace) throws IOException {
+		List<Path> files;
+		if (Files.isDirectory(trace)) {
+			try (var s = Files.list(trace)) {
+				files = s.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+		} else {
+			files = List.of(trace);
+		}
+
+		var events = new ArrayList<Events>();
+		for (var f : files) {
+			events.add(scan(f));
+		}
+		var cpus = new TreeMap<Integer, CpuState>();
+		double end = merge(events, cpus);
+
+		var results = new ResultMap();
+		for (var e : cpus.entrySet()) {
+			var cpu = e.getValue();
+			cpu.advance(end);
+			var name = PREFIX + e.getKey();
+			var activePower = conf.activePower.getOrDefault(e.getKey(), Map.of());
+			var idlePower = conf.idlePower.getOrDefault(e.getKey(), Map.of());
+			double energy = 0;
+			for (var t : cpu.frequencyTime.entrySet()) {
+				energy += t.getValue() * activePower.getOrDefault(t.getKey(), 0.0);
+				if (conf.residency) {
+					results.put(name + ".freq" + t.getKey(), t.getValue());
+				}
+			}
+			for (var t : cpu.idleTime.entrySet()) {
+				energy += t.getValue() * idlePower.getOrDefault(t.getKey(), 0.0);
+				if (conf.residency) {
+					results.put(name + ".idle" + t.getKey(), t.getValue());
+				}
+			}
+			results.put(name + ".energy", energy);
+		}
+		return results;
+	}
+
+	/**
+	 * Applies the events of all files in timestamp order, each file being in timestamp order already, and those of
+	 * an earlier file first on a tie.
+	 *
+	 * @return the last timestamp
+	 */
+	private static double merge(List<Events> events, Map<Integer, CpuState> cpus) {
+		var next = new int[events.size()];
+		double last = Double.NEGATIVE_INFINITY;
+		while (true) {
+			int file = -1;
+			double timestamp = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < next.length; i++) {
+				var e = events.get(i);
+				if (next[i] < e.size && e.timestamps[next[i]] < timestamp) {
+					file = i;
+					timestamp = e.timestamps[next[i]];
+				}
+			}
+			if (file < 0) {
+				return last;
+			}
+			var e = events.get(file);
+			int i = next[file]++;
+			var cpu = cpus.computeIfAbsent(e.cpus[i], k -> new CpuState());
+			cpu.advance(timestamp);
+			if (!e.idle[i]) {
+				cpu.frequency = e.states[i];
+			} else {
+				cpu.idleState = e.states[i] == IDLE_EXIT ? -1 : (int) e.states[i];
+			}
+			last = Math.max(last, timestamp);
+		}
+	}
+
+	private static Events scan(Path file) throws IOException {
+		var events = new Events();
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				long length = Math.min(WINDOW, size - position);
+				var buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				boolean atEnd = position + length == size;
+				int lineStart = 0;
+				for (int i = 0; i < length; i++) {
+					if (buffer.get(i) == '\n') {
+						parseLine(buffer, lineStart, i, events);
+						lineStart = i + 1;
+					}
+				}
+				if (atEnd) {
+					if (lineStart < length) {
+						parseLine(buffer, lineStart, (int) length, events);
+					}
+					break;
+				}
+				if (lineStart == 0) {
+					log.warn("Line longer than {} bytes in {}", WINDOW, file);
+					lineStart = (int) length;
+				}
+				position += lineStart;
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * Adds the event of the line, if it is one of the events.
+	 *
+	 * @param end exclusive
+	 */
+	private static void parseLine(MappedByteBuffer buffer, int start, int end, Events events) {
+		int event = indexOf(buffer, start, end, SEPARATOR);
+		if (event < 0) {
+			return;
+		}
+		boolean idle;
+		if (startsWith(buffer, event, end, FREQUENCY_EVENT)) {
+			idle = false;
+		} else if (startsWith(buffer, event, end, IDLE_EVENT)) {
+			idle = true;
+		} else {
+			return;
+		}
+		int tsStart = event;
+		while (tsStart > start && buffer.get(tsStart - 1) != ' ') {
+			tsStart--;
+		}
+		int argsStart = event + (idle ? IDLE_EVENT.length : FREQUENCY_EVENT.length);
+		int stateAt = indexOf(buffer, argsStart, end, STATE);
+		int cpuAt = indexOf(buffer, argsStart, end, CPU_ID);
+		if (stateAt < 0 || cpuAt < 0) {
+			return;
+		}
+		double timestamp = parseDecimal(buffer, tsStart, event);
+		long state = (long) parseDecimal(buffer, stateAt + STATE.length, end);
+		int cpuId = (int) parseDecimal(buffer, cpuAt + CPU_ID.length, end);
+		if (timestamp < 0 || state < 0 || cpuId < 0) {
+			return;
+		}
+		events.add(timestamp, cpuId, state, idle);
+	}
+
+	private static int indexOf(MappedByteBuffer buffer, int start, int end, byte[] pattern) {
+		for (int i = start; i <= end - pattern.length; i++) {
+			if (startsWith(buffer, i, end, pattern)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(MappedByteBuffer buffer, int start, int end, byte[] pattern) {
+		if (end - start < pattern.length) {
+			return false;
+		}
+		for (int j = 0; j < pattern.length; j++) {
+			if (buffer.get(start + j) != pattern[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses digits with an optional fraction from {@code start}, stopping at the first other byte.
+	 *
+	 * @return the number, or -1 if there are no digits
+	 */
+	private static double parseDecimal(MappedByteBuffer buffer, int start, int end) {
+		long integer = 0;
+		long fraction = 0;
+		long scale = 1;
+		boolean digits = false;
+		boolean point = false;
+		for (int i = start; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				digits = true;
+				if (point) {
+					fraction = fraction * 10 + (b - '0');
+					scale *= 10;
+				} else {
+					integer = integer * 10 + (b - '0');
+				}
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (!digits) {
+			return -1;
+		}
+		return integer + (double) fraction / scale;
+	}
+
+	/**
+	 * Applies the retention policy to the output of a run.
+	 *
+	 * @param paths files or directories, which may not exist
+	 */
+	public void retain(List<Path> paths) throws IOException {
+		if (conf.retention == Retention.KEEP) {
+			return;
+		}
+		for (var p : paths) {
+			if (Files.isDirectory(p)) {
+				List<Path> files;
+				try (var s = Files.list(p)) {
+					files = s.collect(Collectors.toList());
+				}
+				retain(files);
+				if (conf.retention == Retention.DELETE) {
+					Files.delete(p);
+				}
+			} else if (Files.isRegularFile(p)) {
+				if (conf.retention == Retention.COMPRESS) {
+					if (p.toString().endsWith(".gz")) {
+						continue;
+					}
+					var compressed = Path.of(p + ".gz");
+					try (var out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+						Files.copy(p, out);
+					}
+				}
+				Files.delete(p);
+			}
+		}
+	}
+}
@@ -1,14 +1,39 @@
 package edu.purdue.dsnl.configprof.adaptor;
 
+import edu.purdue.dsnl.configprof.Digests;
+import edu.purdue.dsnl.configprof.TestState;
+import edu.purdue.dsnl.configprof.mutator.MutationPlan;
 import edu.purdue.dsnl.configprof.result.ResultMap;
+import lombok.Cleanup;
+import lombok.Data;
 import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+@Log4j2
 public class HadoopAdaptor implements AppAdaptor {
 	private static final String TERASORT_INPUT = "/user/xu1201/terasort-input";
 
@@ -16,9 +41,55 @@ public class HadoopAdaptor implements AppAdaptor {
 
 	private static final String TERASORT_VALIDATE = "/user/xu1201/terasort-validate";
 
+	private static final Path OVERRIDE_FILE = BUILD_DIR.resolve("overrides.properties").toAbsolutePath();
+
 	private static final String TERASORT_JAR = "share/hadoop/mapreduce/hadoop-mapreduce-examples-3.2.1.jar";
 
-	public HadoopAdaptor() {
+	private static final File DATA_DIR = new File("/tmp/hadoop-" + System.getProperty("user.name"));
+
+	private static final File JOURNAL_DIR = new File("/tmp/hadoop/dfs/journalnode/");
+
+	/**
+	 * Kept in the data directory, so that it goes with the data.
+	 */
+	private static final Path DATA_MARKER = DATA_DIR.toPath().resolve("configprof-data.properties");
+
+	private static final String LAYOUT_KEY = "layout";
+
+	private static final String CHECKSUM_KEY = "checksum";
+
+	private static final Duration COMMAND_TIMEOUT = Duration.ofMinutes(2);
+
+	private static final String SOURCE_ROOT = "src/main/java/";
+
+	private final Conf conf;
+
+	/**
+	 * Jars of the reference build containing each class, relative to the build.
+	 */
+	private Map<String, List<Path>> classJars;
+
+	/**
+	 * Literal injection only: indices of the literals in the jars that determine the data.
+	 */
+	private Set<String> layoutLiterals;
+
+	@Data
+	public static class Conf {
+		/**
+		 * Keeps HDFS and the terasort input across mutants, generating them again only if the jars that determine
+		 * the data change, or the checksum of the input does not match.
+		 */
+		private boolean reuseData = false;
+		/**
+		 * Regular expression of the names of the jars that determine the data.
+		 */
+		private String layoutJars = "hadoop-(common|hdfs|mapreduce-examples)-.*\\.jar";
+	}
+
+	public HadoopAdaptor() throws IOException {
+		var conf = TestState.getSection("hadoop", Conf.class);
+		this.conf = conf == null ? new Conf() : conf;
 		BUILD_DIR.toFile().mkdir();
 	}
 
@@ -32,7 +103,7 @@ public class HadoopAdaptor implements AppAdaptor {
 		cmdBuilder.environment().put("DOCKER_INTERACTIVE_RUN", "");
 		cmdBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
 		var cmd = cmdBuilder.start();
-		if (cmd.waitFor() != 0) {
+		if (ExecUtil.waitFor(cmd) != 0) {
 			throw new BuildException(new String(cmd.getErrorStream().readAllBytes()));
 		}
 
@@ -42,15 +113,111 @@ public class HadoopAdaptor implements AppAdaptor {
 		}).waitFor();
 	}
 
+	@Override
+	public List<Path> getBuildInputs(Path project) {
+		return List.of(project.resolve("pom.xml"), project.resolve("start-build-env.sh"));
+	}
+
 	@SneakyThrows(IOException.class)
 	@Override
 	public void prepare(String tag) throws ExecutionException {
+		if (!conf.reuseData) {
+			generateData(tag);
+			return;
+		}
+
+		var layout = getLayout(tag);
+		var marker = new Properties();
+		if (DATA_MARKER.toFile().isFile()) {
+			try (var reader = Files.newBufferedReader(DATA_MARKER)) {
+				marker.load(reader);
+			}
+		}
+		if (layout.equals(marker.getProperty(LAYOUT_KEY))) {
+			var build = getPath(tag);
+			exec(build.resolve("sbin/start-dfs.sh").toString());
+			exec(build.resolve("bin/hdfs").toString(), "dfsadmin", "-safemode", "wait");
+			if (checksum(tag).equals(marker.getProperty(CHECKSUM_KEY))) {
+				log.info("Reuses HDFS data for {}", tag);
+				return;
+			}
+			log.warn("HDFS data checksum mismatch, generating again");
+			cleanup(tag);
+		}
+
+		generateData(tag);
+		marker.setProperty(LAYOUT_KEY, layout);
+		marker.setProperty(CHECKSUM_KEY, checksum(tag));
+		try (var writer = Files.newBufferedWriter(DATA_MARKER)) {
+			marker.store(writer, null);
+		}
+	}
+
+	/**
+	 * Covers the jars that determine the data, and the values of the literals injected into them.
+	 */
+	private String getLayout(String tag) throws IOException {
+		var layout = fingerprint(tag, n -> n.matches(conf.layoutJars));
+		if (OVERRIDE_FILE.toFile().isFile()) {
+			var overrides = new Properties();
+			try (var reader = Files.newBufferedReader(OVERRIDE_FILE)) {
+				overrides.load(reader);
+			}
+			var literals = getLayoutLiterals(tag);
+			var layoutOverrides = new TreeMap<String, String>();
+			for (var name : overrides.stringPropertyNames()) {
+				if (literals.contains(name)) {
+					layoutOverrides.put(name, overrides.getProperty(name));
+				}
+			}
+			if (!layoutOverrides.isEmpty()) {
+				layout += Digests.hash(layoutOverrides.toString());
+			}
+		}
+		return layout;
+	}
+
+	/**
+	 * A literal counts if a jar matching {@link Conf#layoutJars} has the class of its source file, or if that is not
+	 * known.
+	 */
+	private synchronized Set<String> getLayoutLiterals(String tag) throws IOException {
+		if (layoutLiterals == null) {
+			layoutLiterals = new HashSet<>();
+			var plan = MutationPlan.load();
+			var paths = TestState.getTestedLiteralPaths();
+			for (int i = 0; i < paths.size(); i++) {
+				var entry = plan.get(paths.get(i));
+				if (entry == null || isInLayoutJar(tag, entry.getFile())) {
+					layoutLiterals.add(String.valueOf(i));
+				}
+			}
+			log.info("{} of {} literals determine the data", layoutLiterals.size(), paths.size());
+		}
+		return layoutLiterals;
+	}
+
+	private boolean isInLayoutJar(String tag, String file) throws IOException {
+		file = file.replace(File.separatorChar, '/');
+		int root = file.indexOf(SOURCE_ROOT);
+		if (root < 0 || !file.endsWith(".java")) {
+			return true;
+		}
+		var className = file.substring(root + SOURCE_ROOT.length(), file.length() - ".java".length()) + ".class";
+		var jars = getClassJars(tag).get(className);
+		return jars == null || jars.stream().anyMatch(j -> j.getFileName().toString().matches(conf.layoutJars));
+	}
+
+	/**
+	 * Formats HDFS, starts it and generates the terasort input.
+	 */
+	private void generateData(String tag) throws IOException, ExecutionException {
 		var build = getPath(tag);
 		var hdfs = build.resolve("bin/hdfs").toString();
 		var jar = build.resolve(TERASORT_JAR).toAbsolutePath().toString();
 
-		FileUtils.deleteQuietly(new File("/tmp/hadoop-" + System.getProperty("user.name")));
-		FileUtils.deleteQuietly(new File("/tmp/hadoop/dfs/journalnode/"));
+		FileUtils.deleteQuietly(DATA_DIR);
+		FileUtils.deleteQuietly(JOURNAL_DIR);
 
 		exec(hdfs, "namenode", "-format", "-nonInteractive");
 		exec(build.resolve("sbin/start-dfs.sh").toString());
@@ -60,6 +227,18 @@ public class HadoopAdaptor implements AppAdaptor {
 		exec(build.resolve("bin/hadoop").toString(), "jar", jar, "teragen", "10000000", TERASORT_INPUT);
 	}
 
+	@Override
+	public String getOverrideLocation() {
+		return OVERRIDE_FILE.toString();
+	}
+
+	@SneakyThrows(IOException.class)
+	@Override
+	public void setOverrides(Properties overrides) {
+		@Cleanup var writer = Files.newBufferedWriter(OVERRIDE_FILE);
+		overrides.store(writer, null);
+	}
+
 	@SneakyThrows(IOException.class)
 	@Override
 	public ResultMap run(String tag, String suffix, boolean dummy) throws ExecutionException {
@@ -92,18 +271,141 @@ public class HadoopAdaptor implements AppAdaptor {
 		return BUILD_DIR.resolve(tag);
 	}
 
+	@Override
+	public List<Path> getClasspath(String refTag) throws IOException {
+		return getJars(refTag, false);
+	}
+
+	@Override
+	public Map<String, byte[]> getClasses(String tag, String packageDir) throws IOException {
+		var build = getPath(tag);
+		var classes = new HashMap<String, byte[]>();
+		for (var e : getClassJars(tag).entrySet()) {
+			var name = e.getKey();
+			if (name.lastIndexOf('/') == packageDir.length() && name.startsWith(packageDir)) {
+				@Cleanup var zipFile = new ZipFile(build.resolve(e.getValue().get(0)).toFile());
+				@Cleanup var in = zipFile.getInputStream(zipFile.getEntry(name));
+				classes.put(name, in.readAllBytes());
+			}
+		}
+		return classes;
+	}
+
+	/**
+	 * Hard links the reference build, and rewrites the jars with replaced classes as new files, so that the
+	 * reference is left intact.
+	 */
+	@SneakyThrows(InterruptedException.class)
+	@Override
+	public boolean patch(String refTag, String tag, Map<String, byte[]> classes) throws IOException {
+		var build = getPath(tag);
+		FileUtils.deleteDirectory(build.toFile());
+		var process = new ProcessBuilder("cp", "-al", getPath(refTag).toString(), build.toString()).start();
+		if (process.waitFor() != 0) {
+			throw new IOException(new String(process.getErrorStream().readAllBytes()));
+		}
+
+		var jarClasses = new HashMap<Path, Map<String, byte[]>>();
+		for (var e : classes.entrySet()) {
+			var jars = getClassJars(refTag).get(e.getKey());
+			if (jars == null) {
+				throw new IOException("No jar has " + e.getKey());
+			}
+			for (var jar : jars) {
+				jarClasses.computeIfAbsent(jar, j -> new HashMap<>()).put(e.getKey(), e.getValue());
+			}
+		}
+		for (var e : jarClasses.entrySet()) {
+			replaceEntries(build.resolve(e.getKey()), e.getValue());
+		}
+		return true;
+	}
+
+	private synchronized Map<String, List<Path>> getClassJars(String refTag) throws IOException {
+		if (classJars == null) {
+			classJars = new HashMap<>();
+			var build = getPath(refTag);
+			for (var jar : getJars(refTag, true)) {
+				@Cleanup var zipFile = new ZipFile(jar.toFile());
+				zipFile.stream().map(ZipEntry::getName).filter(n -> n.endsWith(".class")).forEach(n ->
+						classJars.computeIfAbsent(n, k -> new ArrayList<>()).add(build.relativize(jar)));
+			}
+		}
+		return classJars;
+	}
+
+	private static void replaceEntries(Path jar, Map<String, byte[]> entries) throws IOException {
+		var tmp = jar.resolveSibling(jar.getFileName() + ".tmp");
+		try (var in = new ZipInputStream(Files.newInputStream(jar));
+				var out = new ZipOutputStream(Files.newOutputStream(tmp))) {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				var replacement = entries.get(entry.getName());
+				if (replacement != null) {
+					out.write(replacement);
+				} else {
+					in.transferTo(out);
+				}
+				out.closeEntry();
+			}
+		}
+		Files.move(tmp, jar, REPLACE_EXISTING);
+	}
+
+	/**
+	 * @param hadoopOnly only the jars of Hadoop itself, not its third-party libraries
+	 */
+	private List<Path> getJars(String tag, boolean hadoopOnly) throws IOException {
+		@Cleanup var files = Files.walk(getPath(tag).resolve("share/hadoop"));
+		return files.filter(f -> {
+			var name = f.getFileName().toString();
+			return (!hadoopOnly || name.startsWith("hadoop-")) && name.endsWith(".jar");
+		}).sorted().collect(Collectors.toList());
+	}
+
+	/**
+	 * Covers the classes in the Hadoop jars of the distribution, but not its scripts or third-party libraries.
+	 */
+	@Override
+	public String fingerprint(String tag) throws IOException {
+		return fingerprint(tag, n -> true);
+	}
+
+	/**
+	 * @param jarFilter names of the Hadoop jars to cover
+	 */
+	private String fingerprint(String tag, Predicate<String> jarFilter) throws IOException {
+		var digest = Digests.create();
+		for (var jar : getJars(tag, true)) {
+			var name = jar.getFileName().toString();
+			if (jarFilter.test(name)) {
+				digest.update(name.getBytes(StandardCharsets.UTF_8));
+				Digests.updateZipEntries(digest, jar, n -> n.endsWith(".class"));
+			}
+		}
+		return Digests.toHex(digest.digest());
+	}
+
+	/**
+	 * HDFS file checksums of the terasort input, which the datanodes compute from the stored block checksums.
+	 */
+	private String checksum(String tag) throws ExecutionException {
+		var result = ExecUtil.run(new ProcessBuilder(getPath(tag).resolve("bin/hdfs").toString(), "dfs", "-checksum",
+				TERASORT_INPUT + "/*"), COMMAND_TIMEOUT);
+		if (result.getExitValue() != 0) {
+			throw new ExecutionException("Cannot checksum " + TERASORT_INPUT);
+		}
+		var lines = result.getOutput().lines().filter(l -> l.contains("\t")).sorted().collect(Collectors.joining("\n"));
+		return Digests.hash(lines);
+	}
+
 	@Override
 	public void delete(String tag) throws IOException {
 		FileUtils.deleteDirectory(getPath(tag).toFile());
 	}
 
-	@SneakyThrows(InterruptedException.class)
 	private void exec(String... command) throws IOException, ExecutionException {
-		var processBuilder = new ProcessBuilder(command);
-		processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
-		var process = processBuilder.start();
-		if (!process.waitFor(2, TimeUnit.MINUTES) || process.exitValue() != 0) {
-			throw new ExecutionException(new String(process.getErrorStream().readAllBytes()));
-		}
+		ExecUtil.exec(List.of(command), COMMAND_TIMEOUT);
 	}
 }
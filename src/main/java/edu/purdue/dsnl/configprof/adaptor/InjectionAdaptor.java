@@ -0,0 +1,185 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+import edu.purdue.dsnl.configprof.result.ResultMap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs every mutation on the one build of the base tag, with the literals injected into it set to the override
+ * values of the mutation before the app starts. Mutations that could not be injected are built from source as usual,
+ * and run on their own builds.
+ */
+public class InjectionAdaptor implements AppAdaptor {
+	private final AppAdaptor appAdaptor;
+
+	private final String baseTag;
+
+	private final Map<String, Properties> overrides;
+
+	/**
+	 * Tags built from source other than the base tag.
+	 */
+	private final Set<String> built;
+
+	private Properties current;
+
+	public InjectionAdaptor(AppAdaptor appAdaptor, String baseTag) {
+		this(appAdaptor, baseTag, new ConcurrentHashMap<>(), ConcurrentHashMap.newKeySet());
+	}
+
+	private InjectionAdaptor(AppAdaptor appAdaptor, String baseTag, Map<String, Properties> overrides,
+			Set<String> built) {
+		this.appAdaptor = appAdaptor;
+		this.baseTag = baseTag;
+		this.overrides = overrides;
+		this.built = built;
+	}
+
+	/**
+	 * @return an adaptor running the same mutations on another device
+	 */
+	public InjectionAdaptor forDevice(AppAdaptor appAdaptor) {
+		return new InjectionAdaptor(appAdaptor, baseTag, overrides, built);
+	}
+
+	/**
+	 * @param values override values by literal index
+	 */
+	public void addOverrides(String tag, Properties values) {
+		overrides.put(tag, values);
+	}
+
+	@Override
+	public void build(Path project, String tag) throws BuildException, IOException {
+		appAdaptor.build(project, tag);
+		if (!tag.equals(baseTag)) {
+			built.add(tag);
+		}
+	}
+
+	@Override
+	public List<Path> getBuildInputs(Path project) {
+		return appAdaptor.getBuildInputs(project);
+	}
+
+	@Override
+	public void stage(String tag) throws ExecutionException {
+		appAdaptor.stage(getBuild(tag));
+	}
+
+	@Override
+	public void prepare(String tag) throws ExecutionException {
+		applyOverrides(tag);
+		appAdaptor.prepare(getBuild(tag));
+	}
+
+	@Override
+	public ResultMap run(String tag, String suffix, boolean dummy) throws ExecutionException {
+		var build = getBuild(tag);
+		return appAdaptor.run(build, tag.equals(build) ? suffix : tag + '_' + suffix, dummy);
+	}
+
+	@Override
+	public void cleanup(String tag) {
+		appAdaptor.cleanup(getBuild(tag));
+	}
+
+	@Override
+	public void saveState(String tag) throws ExecutionException {
+		appAdaptor.saveState(tag);
+	}
+
+	@Override
+	public void restoreState(String tag) throws ExecutionException {
+		applyOverrides(tag);
+		appAdaptor.restoreState(tag);
+	}
+
+	@Override
+	public Path getPath(String tag) {
+		return appAdaptor.getPath(getBuild(tag));
+	}
+
+	@Override
+	public List<Path> getClasspath(String refTag) throws IOException {
+		return appAdaptor.getClasspath(getBuild(refTag));
+	}
+
+	@Override
+	public Map<String, byte[]> getClasses(String tag, String packageDir) throws IOException {
+		return appAdaptor.getClasses(getBuild(tag), packageDir);
+	}
+
+	@Override
+	public boolean patch(String refTag, String tag, Map<String, byte[]> classes) throws IOException {
+		if (!appAdaptor.patch(getBuild(refTag), tag, classes)) {
+			return false;
+		}
+		if (!tag.equals(baseTag)) {
+			built.add(tag);
+		}
+		return true;
+	}
+
+	/**
+	 * Mutations running on the base build with overrides behave differently from it however alike their code, so
+	 * only builds of their own have fingerprints.
+	 */
+	@Override
+	public String fingerprint(String tag) throws IOException {
+		if (!tag.equals(baseTag) && !built.contains(tag)) {
+			return null;
+		}
+		return appAdaptor.fingerprint(tag);
+	}
+
+	@Override
+	public void delete(String tag) throws IOException {
+		overrides.remove(tag);
+		if (built.remove(tag)) {
+			appAdaptor.delete(tag);
+		}
+	}
+
+	@Override
+	public String getDevice() {
+		return appAdaptor.getDevice();
+	}
+
+	@Override
+	public boolean isStable(List<ResultMap> results) {
+		return appAdaptor.isStable(results);
+	}
+
+	@Override
+	public String getOverrideLocation() {
+		return appAdaptor.getOverrideLocation();
+	}
+
+	@Override
+	public void setOverrides(Properties overrides) throws ExecutionException {
+		appAdaptor.setOverrides(overrides);
+		current = overrides;
+	}
+
+	/**
+	 * @return the tag of the build the mutation runs on
+	 */
+	private String getBuild(String tag) {
+		return built.contains(tag) ? tag : baseTag;
+	}
+
+	private void applyOverrides(String tag) throws ExecutionException {
+		var values = overrides.getOrDefault(tag, new Properties());
+		if (!values.equals(current)) {
+			appAdaptor.setOverrides(values);
+			current = values;
+		}
+	}
+}
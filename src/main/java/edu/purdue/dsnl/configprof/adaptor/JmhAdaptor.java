@@ -0,0 +1,315 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import edu.purdue.dsnl.configprof.Digests;
+import edu.purdue.dsnl.configprof.TestState;
+import edu.purdue.dsnl.configprof.result.ResultMap;
+import lombok.Cleanup;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Builds a JVM project with Gradle or Maven, and runs its JMH benchmarks. Each benchmark reports its score, and with
+ * the GC profiler, its allocation rate. The error of each score is only used to decide whether the runs are stable.
+ */
+@Log4j2
+public class JmhAdaptor implements AppAdaptor {
+	private static final Path JMH_PATH = Path.of("jmh");
+
+	private static final Path OVERRIDE_FILE = BUILD_DIR.resolve("overrides.properties").toAbsolutePath();
+
+	private static final String SCORE = ".score";
+
+	private static final String ALLOC_RATE = ".alloc";
+
+	private static final List<String> BUILD_FILES = List.of(
+			"build.gradle", "build.gradle.kts", "settings.gradle", "settings.gradle.kts", "gradle.properties",
+			"pom.xml");
+
+	/**
+	 * Most runs whose errors are kept until they are checked, in case they are never checked.
+	 */
+	private static final int MAX_ERRORS = 4096;
+
+	private final Conf conf;
+
+	/**
+	 * Errors of the scores of each run, by identity of its results.
+	 */
+	private final Map<ResultMap, Map<String, Double>> errors = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	@Data
+	public static class Conf {
+		/**
+		 * Run in the project directory.
+		 */
+		private List<String> buildCommand = List.of("./gradlew", "jmhJar");
+		/**
+		 * Benchmark jar built, relative to the project directory.
+		 */
+		private String jar;
+		/**
+		 * Regular expression of the benchmarks to run, all by default.
+		 */
+		private String benchmarks;
+		/**
+		 * More JMH options, such as the numbers of forks and iterations.
+		 */
+		private List<String> jmhArgs = List.of();
+		private boolean gcProfiler = false;
+		private String javaCommand = "java";
+		/**
+		 * Largest error of a score relative to the score for the results to be stable, 0 to not check.
+		 */
+		private double stableThreshold = 0;
+		/**
+		 * Longest time in seconds a build or benchmark command may take before it is killed, 0 for no limit.
+		 */
+		private long commandTimeout = 0;
+	}
+
+	public JmhAdaptor() throws IOException {
+		conf = TestState.getSection("jmh", Conf.class);
+		if (conf == null || conf.jar == null) {
+			throw new IOException("No JMH configuration");
+		}
+		BUILD_DIR.toFile().mkdir();
+		JMH_PATH.toFile().mkdir();
+	}
+
+	@Override
+	public void build(Path project, String tag) throws BuildException, IOException {
+		ExecUtil.Result result;
+		try {
+			var builder = new ProcessBuilder(conf.buildCommand).directory(project.toFile());
+			result = ExecUtil.run(builder, getTimeout());
+		} catch (ExecutionException e) {
+			throw new BuildException(e.getMessage());
+		}
+		if (result.getExitValue() != 0) {
+			throw new BuildException(result.getError().isBlank() ? result.getOutput() : result.getError());
+		}
+
+		Files.copy(project.resolve(conf.jar), getPath(tag), REPLACE_EXISTING);
+	}
+
+	@Override
+	public List<Path> getBuildInputs(Path project) {
+		return BUILD_FILES.stream().map(project::resolve).filter(Files::exists).collect(Collectors.toList());
+	}
+
+	/**
+	 * JMH warms up in each fork by itself.
+	 */
+	@Override
+	public void prepare(String tag) {}
+
+	@Override
+	public ResultMap run(String tag, String suffix, boolean dummy) throws ExecutionException {
+		var output = JMH_PATH.resolve(tag + '_' + suffix + ".json").toAbsolutePath();
+		var command = new ArrayList<String>();
+		command.add(conf.javaCommand);
+		command.add("-jar");
+		command.add(getPath(tag).toAbsolutePath().toString());
+		if (conf.benchmarks != null) {
+			command.add(conf.benchmarks);
+		}
+		command.addAll(List.of("-rf", "json", "-rff", output.toString()));
+		if (conf.gcProfiler) {
+			command.addAll(List.of("-prof", "gc"));
+		}
+		command.addAll(conf.jmhArgs);
+		ExecUtil.exec(command, getTimeout());
+
+		var scoreErrors = new HashMap<String, Double>();
+		ResultMap result;
+		try {
+			result = parse(output, scoreErrors);
+		} catch (IOException | RuntimeException e) {
+			throw new ExecutionException("Cannot parse " + output + ": " + e);
+		}
+		if (conf.stableThreshold > 0) {
+			synchronized (errors) {
+				if (errors.size() >= MAX_ERRORS) {
+					errors.clear();
+				}
+				errors.put(result, scoreErrors);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Keys the metrics of each benchmark by its name without the package, and its parameters if any.
+	 *
+	 * @param scoreErrors filled with the error of each score
+	 */
+	private static ResultMap parse(Path output, Map<String, Double> scoreErrors) throws IOException {
+		var result = new ResultMap();
+		for (var e : JsonParser.parseString(Files.readString(output)).getAsJsonArray()) {
+			var benchmark = e.getAsJsonObject();
+			var name = benchmark.get("benchmark").getAsString();
+			var parts = name.split("\\.");
+			if (parts.length >= 2) {
+				name = parts[parts.length - 2] + '.' + parts[parts.length - 1];
+			}
+			if (benchmark.has("params")) {
+				name += benchmark.getAsJsonObject("params").entrySet().stream()
+						.map(p -> p.getKey() + '=' + p.getValue().getAsString())
+						.collect(Collectors.joining(",", "[", "]"));
+			}
+			var primary = benchmark.getAsJsonObject("primaryMetric");
+			put(result, name + SCORE, primary.get("score"));
+			double error = parseDouble(primary.get("scoreError"));
+			if (!Double.isNaN(error)) {
+				scoreErrors.put(name + SCORE, error);
+			}
+			var secondary = benchmark.getAsJsonObject("secondaryMetrics");
+			if (secondary != null && secondary.has("gc.alloc.rate")) {
+				put(result, name + ALLOC_RATE, secondary.getAsJsonObject("gc.alloc.rate").get("score"));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Leaves out NaN, which JMH writes as a string, e.g. for the error of a single iteration.
+	 */
+	private static void put(ResultMap result, String key, JsonElement e) {
+		double value = parseDouble(e);
+		if (!Double.isNaN(value)) {
+			result.put(key, value);
+		}
+	}
+
+	private static double parseDouble(JsonElement e) {
+		return Double.parseDouble(e.getAsString());
+	}
+
+	@Override
+	public Path getPath(String tag) {
+		return BUILD_DIR.resolve(tag + ".jar");
+	}
+
+	@Override
+	public List<Path> getClasspath(String refTag) {
+		return List.of(getPath(refTag));
+	}
+
+	@Override
+	public Map<String, byte[]> getClasses(String tag, String packageDir) throws IOException {
+		var classes = new HashMap<String, byte[]>();
+		@Cleanup var zipFile = new ZipFile(getPath(tag).toFile());
+		for (var entries = zipFile.entries(); entries.hasMoreElements(); ) {
+			var e = entries.nextElement();
+			var name = e.getName();
+			if (name.endsWith(".class") && name.lastIndexOf('/') == packageDir.length()
+					&& name.startsWith(packageDir)) {
+				@Cleanup var in = zipFile.getInputStream(e);
+				classes.put(name, in.readAllBytes());
+			}
+		}
+		return classes;
+	}
+
+	@Override
+	public boolean patch(String refTag, String tag, Map<String, byte[]> classes) throws IOException {
+		var tmp = Path.of(getPath(tag) + ".tmp");
+		try (var zipFile = new ZipFile(getPath(refTag).toFile());
+				var out = new ZipOutputStream(Files.newOutputStream(tmp))) {
+			for (var entries = zipFile.entries(); entries.hasMoreElements(); ) {
+				var e = entries.nextElement();
+				out.putNextEntry(new ZipEntry(e.getName()));
+				var bytes = classes.get(e.getName());
+				if (bytes != null) {
+					out.write(bytes);
+				} else {
+					@Cleanup var in = zipFile.getInputStream(e);
+					in.transferTo(out);
+				}
+				out.closeEntry();
+			}
+		}
+		Files.move(tmp, getPath(tag), REPLACE_EXISTING);
+		return true;
+	}
+
+	@Override
+	public String getOverrideLocation() {
+		return OVERRIDE_FILE.toString();
+	}
+
+	@SneakyThrows(IOException.class)
+	@Override
+	public void setOverrides(Properties overrides) {
+		@Cleanup var writer = Files.newBufferedWriter(OVERRIDE_FILE);
+		overrides.store(writer, null);
+	}
+
+	@Override
+	public String fingerprint(String tag) throws IOException {
+		var digest = Digests.create();
+		Digests.updateZipEntries(digest, getPath(tag), n -> n.endsWith(".class"));
+		return Digests.toHex(digest.digest());
+	}
+
+	@Override
+	public void delete(String tag) throws IOException {
+		Files.deleteIfExists(getPath(tag));
+	}
+
+	/**
+	 * Stable once the confidence interval JMH reports for every score is narrow enough in every run. Runs whose errors
+	 * are not known, e.g. those run before a restart, are taken as stable.
+	 */
+	@Override
+	public boolean isStable(List<ResultMap> results) {
+		if (conf.stableThreshold <= 0) {
+			return true;
+		}
+		boolean stable = true;
+		for (var r : results) {
+			var scoreErrors = errors.remove(r);
+			if (scoreErrors == null || !stable) {
+				continue;
+			}
+			for (var e : r.entrySet()) {
+				if (!e.getKey().endsWith(SCORE)) {
+					continue;
+				}
+				double score = e.getValue().doubleValue();
+				var error = scoreErrors.get(e.getKey());
+				if (error == null || !(Math.abs(error) <= conf.stableThreshold * Math.abs(score))) {
+					log.debug("{} unstable: {} +- {}", e.getKey(), score, error);
+					stable = false;
+					break;
+				}
+			}
+		}
+		return stable;
+	}
+
+	private Duration getTimeout() {
+		return conf.commandTimeout > 0 ? Duration.ofSeconds(conf.commandTimeout) : null;
+	}
+}
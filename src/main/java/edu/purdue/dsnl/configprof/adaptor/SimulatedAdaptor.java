@@ -0,0 +1,244 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+import edu.purdue.dsnl.configprof.TestState;
+import edu.purdue.dsnl.configprof.mutator.MutationPlan;
+import edu.purdue.dsnl.configprof.result.ResultMap;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Stands in for an app without building or running anything, to measure the overhead of the framework itself. Builds
+ * and runs take the configured time and fail at the configured rates. A run reports one metric around 100, scaled by
+ * the effects of the literals mutated in the build, which are found by comparing its sources with the original ones
+ * at the positions in the mutation plan.
+ */
+@Log4j2
+public class SimulatedAdaptor implements AppAdaptor {
+	private static final double BASELINE = 100;
+
+	private static final String METRIC = "value";
+
+	private final Conf conf;
+
+	/**
+	 * Null if there is only one device.
+	 */
+	private final String device;
+
+	private final Random random;
+
+	private final Plan plan;
+
+	public enum Noise {
+		NORMAL,
+		UNIFORM,
+		LOG_NORMAL,
+	}
+
+	@Data
+	public static class Conf {
+		private int devices = 1;
+		private long buildMillis = 0;
+		private long prepareMillis = 0;
+		private long runMillis = 0;
+		private double buildFailureRate = 0;
+		private double runFailureRate = 0;
+		private Noise noise = Noise.NORMAL;
+		/**
+		 * Standard deviation of the noise relative to the mean.
+		 */
+		private double noiseLevel = 0.01;
+		/**
+		 * Relative effects of mutating literals by their indices in literal-paths.txt.
+		 */
+		private Map<Integer, Double> effects = Map.of();
+		/**
+		 * Fraction of the other literals having an effect of {@link #effectSize}, chosen at random.
+		 */
+		private double effectRate = 0;
+		private double effectSize = 0.1;
+		private long seed = 0;
+	}
+
+	/**
+	 * The mutation plan, shared by the adaptors of all devices.
+	 */
+	private static class Plan {
+		/**
+		 * Plan entries of each source file, in order of position.
+		 */
+		private final Map<String, List<MutationPlan.Entry>> fileEntries;
+
+		private final Map<String, Integer> literalIndices = new HashMap<>();
+
+		private final Map<String, String> originals = new ConcurrentHashMap<>();
+
+		private Plan() throws IOException {
+			if (!MutationPlan.exists()) {
+				throw new IOException("Simulation needs the mutation plan to find the mutated literals");
+			}
+			fileEntries = MutationPlan.load().values().stream().collect(Collectors.groupingBy(
+					MutationPlan.Entry::getFile, Collectors.collectingAndThen(Collectors.toList(), l -> {
+						l.sort(Comparator.comparingInt(MutationPlan.Entry::getStart));
+						return l;
+					})));
+			var paths = TestState.getLiteralPaths();
+			for (int i = 0; i < paths.size(); i++) {
+				literalIndices.putIfAbsent(paths.get(i), i);
+			}
+		}
+	}
+
+	private SimulatedAdaptor(Conf conf, Plan plan, int device) {
+		this.conf = conf;
+		this.plan = plan;
+		this.device = conf.devices > 1 ? "sim" + device : null;
+		random = new Random(conf.seed + device);
+		BUILD_DIR.toFile().mkdir();
+	}
+
+	public SimulatedAdaptor() throws IOException {
+		this(loadConf(), new Plan(), 0);
+	}
+
+	/**
+	 * @return one adaptor per simulated device
+	 */
+	public static List<AppAdaptor> createPool() throws IOException {
+		var conf = loadConf();
+		var plan = new Plan();
+		var pool = new ArrayList<AppAdaptor>();
+		for (int i = 0; i < Math.max(conf.devices, 1); i++) {
+			pool.add(new SimulatedAdaptor(conf, plan, i));
+		}
+		return pool;
+	}
+
+	private static Conf loadConf() throws IOException {
+		var conf = TestState.getSection("simulated", Conf.class);
+		return conf == null ? new Conf() : conf;
+	}
+
+	@SneakyThrows(InterruptedException.class)
+	@Override
+	public void build(Path project, String tag) throws BuildException, IOException {
+		Thread.sleep(conf.buildMillis);
+		if (random.nextDouble() < conf.buildFailureRate) {
+			throw new BuildException("Simulated build failure");
+		}
+		double scale = 1;
+		for (var idx : findMutated(project)) {
+			scale *= 1 + getEffect(idx);
+		}
+		Files.writeString(getPath(tag), String.valueOf(scale));
+	}
+
+	@SneakyThrows(InterruptedException.class)
+	@Override
+	public void prepare(String tag) {
+		Thread.sleep(conf.prepareMillis);
+	}
+
+	@SneakyThrows({InterruptedException.class, IOException.class})
+	@Override
+	public ResultMap run(String tag, String suffix, boolean dummy) throws ExecutionException {
+		Thread.sleep(conf.runMillis);
+		if (random.nextDouble() < conf.runFailureRate) {
+			throw new ExecutionException("Simulated run failure");
+		}
+		double scale = Double.parseDouble(Files.readString(getPath(tag)));
+		var result = new ResultMap();
+		result.put(METRIC, BASELINE * scale * noise());
+		return result;
+	}
+
+	@Override
+	public Path getPath(String tag) {
+		return BUILD_DIR.resolve(tag + ".sim");
+	}
+
+	@Override
+	public void delete(String tag) throws IOException {
+		Files.deleteIfExists(getPath(tag));
+	}
+
+	@Override
+	public String getDevice() {
+		return device;
+	}
+
+	private double noise() {
+		double level = conf.noiseLevel;
+		return switch (conf.noise) {
+			case NORMAL -> 1 + level * random.nextGaussian();
+			case UNIFORM -> 1 + level * Math.sqrt(3) * (2 * random.nextDouble() - 1);
+			case LOG_NORMAL -> Math.exp(level * random.nextGaussian() - level * level / 2);
+		};
+	}
+
+	private double getEffect(int idx) {
+		var effect = conf.effects.get(idx);
+		if (effect != null) {
+			return effect;
+		}
+		var r = new SplittableRandom(conf.seed * 1_000_003 + idx);
+		return r.nextDouble() < conf.effectRate ? conf.effectSize : 0;
+	}
+
+	/**
+	 * Aligns the sources with the original ones by the code between the literals, which mutations leave intact.
+	 *
+	 * @return indices of the literals whose text differs
+	 */
+	private Set<Integer> findMutated(Path project) throws IOException {
+		var mutated = new HashSet<Integer>();
+		var originalProject = Path.of(TestState.getProjectPaths().getLeft());
+		for (var f : plan.fileEntries.entrySet()) {
+			var original = plan.originals.get(f.getKey());
+			if (original == null) {
+				original = Files.readString(originalProject.resolve(f.getKey()));
+				plan.originals.put(f.getKey(), original);
+			}
+			var current = Files.readString(project.resolve(f.getKey()));
+			if (current.equals(original)) {
+				continue;
+			}
+			var entries = f.getValue();
+			int delta = 0;
+			for (int i = 0; i < entries.size(); i++) {
+				var e = entries.get(i);
+				int gapEnd = i + 1 < entries.size() ? entries.get(i + 1).getStart() : original.length();
+				var gap = original.substring(e.getEnd() + 1, gapEnd);
+				int start = e.getStart() + delta;
+				int end = current.indexOf(gap, start);
+				if (end < 0) {
+					log.warn("Cannot align {} with the original", f.getKey());
+					break;
+				}
+				var idx = plan.literalIndices.get(e.getPath());
+				if (idx != null
+						&& !current.substring(start, end).equals(original.substring(e.getStart(), e.getEnd() + 1))) {
+					mutated.add(idx);
+				}
+				delta = end - (e.getEnd() + 1);
+			}
+		}
+		return mutated;
+	}
+}
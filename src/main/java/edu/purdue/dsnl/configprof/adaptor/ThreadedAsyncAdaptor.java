@@ -0,0 +1,95 @@
+package edu.purdue.dsnl.configprof.adaptor;
+
+import edu.purdue.dsnl.configprof.result.ResultMap;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the stages of a blocking {@link AppAdaptor} on an executor. A stage cancelled or past its deadline is
+ * interrupted, which kills the processes it waits for.
+ */
+public class ThreadedAsyncAdaptor implements AsyncAppAdaptor {
+	private final AppAdaptor appAdaptor;
+
+	private final ExecutorService executor;
+
+	private final Map<Stage, Duration> deadlines;
+
+	private interface Call<T> {
+		T call() throws Exception;
+	}
+
+	/**
+	 * @param deadlines longest time each stage may take, none for the stages left out
+	 */
+	public ThreadedAsyncAdaptor(AppAdaptor appAdaptor, ExecutorService executor, Map<Stage, Duration> deadlines) {
+		this.appAdaptor = appAdaptor;
+		this.executor = executor;
+		this.deadlines = deadlines;
+	}
+
+	@Override
+	public CompletableFuture<Void> build(Path project, String tag) {
+		return submit(Stage.BUILD, () -> {
+			appAdaptor.build(project, tag);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> prepare(String tag) {
+		return submit(Stage.PREPARE, () -> {
+			appAdaptor.prepare(tag);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<ResultMap> run(String tag, String suffix, boolean dummy) {
+		return submit(Stage.RUN, () -> appAdaptor.run(tag, suffix, dummy));
+	}
+
+	@Override
+	public CompletableFuture<Void> cleanup(String tag) {
+		return submit(Stage.CLEANUP, () -> {
+			appAdaptor.cleanup(tag);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> delete(String tag) {
+		return submit(Stage.DELETE, () -> {
+			appAdaptor.delete(tag);
+			return null;
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(Stage stage, Call<T> call) {
+		var future = new CompletableFuture<T>();
+		var task = executor.submit(() -> {
+			try {
+				future.complete(call.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		future.whenComplete((r, e) -> {
+			if (e instanceof CancellationException || e instanceof TimeoutException) {
+				task.cancel(true);
+			}
+		});
+		var deadline = deadlines.get(stage);
+		if (deadline != null) {
+			future.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		return future;
+	}
+}
@@ -1,42 +1,64 @@
 package edu.purdue.dsnl.configprof.mutator;
 
+import edu.purdue.dsnl.configprof.Digests;
 import lombok.SneakyThrows;
-import spoon.Launcher;
+import spoon.reflect.CtModel;
+import spoon.reflect.code.CtAssignment;
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtCase;
+import spoon.reflect.code.CtConditional;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtNewArray;
+import spoon.reflect.code.CtOperatorAssignment;
+import spoon.reflect.code.CtReturn;
 import spoon.reflect.cu.SourcePosition;
+import spoon.reflect.declaration.CtAnnotation;
+import spoon.reflect.declaration.CtAnnotationMethod;
 import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.declaration.CtVariable;
 import spoon.reflect.path.CtPathStringBuilder;
+import spoon.reflect.reference.CtArrayTypeReference;
+import spoon.reflect.reference.CtTypeReference;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+public abstract class AbstractMutator implements Mutator {
+	private final Path project;
 
-public abstract class AbstractMutator {
-	private final Launcher launcher = new Launcher();
+	private final CtModel model;
 
-	private static final Path OUTPUT_DIR = Path.of("bak");
+	private final Map<Path, String> fileHashes = new HashMap<>();
 
-	private static final Path TMP_FILE = Path.of("bak/tmp.java");
+	private final SourceOverlay overlay = new SourceOverlay();
 
 	protected abstract class AbstractMutationIterator<T> implements MutationIterator {
 		protected final T original;
 
+		private final String path;
+
 		private final Iterator<String> candidates;
 
 		private final SourcePosition position;
 
 		private final Path targetFile;
 
-		private final Path bakFile;
+		private final boolean constant;
 
 		protected AbstractMutationIterator(String path) throws InvalidPathException, IOException {
 			this(path, null);
 		}
 
 		protected AbstractMutationIterator(String path, List<String> mut) throws InvalidPathException, IOException {
+			this.path = path;
 			var element = getElement(path);
 			original = elementToValue(element);
 			if (mut != null) {
@@ -47,8 +69,7 @@ public abstract class AbstractMutator {
 
 			position = element.getPosition();
 			targetFile = position.getFile().toPath();
-			bakFile = OUTPUT_DIR.resolve(targetFile.getFileName());
-			Files.copy(targetFile, bakFile, REPLACE_EXISTING);
+			constant = isConstantContext(element);
 		}
 
 		protected abstract T elementToValue(CtElement el);
@@ -59,6 +80,10 @@ public abstract class AbstractMutator {
 
 		protected abstract List<T> getCandidates();
 
+		protected String getKind() {
+			return original.getClass().getSimpleName();
+		}
+
 		@Override
 		public boolean hasNext() {
 			return candidates.hasNext();
@@ -68,7 +93,8 @@ public abstract class AbstractMutator {
 		@Override
 		public String next() {
 			var candidate = candidates.next();
-			output(candidate);
+			overlay.load(targetFile);
+			overlay.setEdit(targetFile, position.getSourceStart(), position.getSourceEnd(), candidate);
 			return candidate;
 		}
 
@@ -82,53 +108,147 @@ public abstract class AbstractMutator {
 		}
 
 		@Override
-		public void resetFile() throws IOException {
-			Files.copy(bakFile, targetFile, REPLACE_EXISTING);
+		public void resetFile() {
+			overlay.clearEdit(targetFile, position.getSourceStart());
+		}
+
+		private List<String> remainingCandidates() {
+			var remaining = new ArrayList<String>();
+			candidates.forEachRemaining(remaining::add);
+			return remaining;
+		}
+
+		private MutationPlan.Entry toEntry() throws IOException {
+			var file = project.toAbsolutePath().normalize().relativize(targetFile.toAbsolutePath().normalize());
+			var remaining = remainingCandidates();
+			String hash = fileHashes.get(targetFile);
+			if (hash == null) {
+				hash = Digests.hash(targetFile);
+				fileHashes.put(targetFile, hash);
+			}
+			return new MutationPlan.Entry(path, file.toString(), position.getSourceStart(), position.getSourceEnd(),
+					position.getLine(), getKind(), valueToString(original), remaining, hash, constant);
 		}
 
 		private CtElement getElement(String path) throws InvalidPathException {
-			var root = launcher.getModel().getRootPackage();
 			var ctPath = new CtPathStringBuilder().fromString(path);
-			var els = ctPath.evaluateOn(root);
+			List<CtElement> els;
+			synchronized (model) {
+				els = ctPath.evaluateOn(model.getRootPackage());
+			}
 			if (els.size() != 1) {
 				throw new InvalidPathException();
 			}
 			return els.get(0);
 		}
+	}
 
-		private void output(String val) throws IOException {
-			try (var in = Files.newBufferedReader(targetFile); var out = Files.newBufferedWriter(TMP_FILE)) {
-				long ret;
-				int start = position.getSourceStart();
-				int end = position.getSourceEnd();
+	protected AbstractMutator(Path project, CtModel model) {
+		this.project = project;
+		this.model = model;
+	}
 
-				var buf = new char[start];
-				ret = in.read(buf);
-				assert ret == start;
-				out.write(buf);
+	@Override
+	public void commit() throws IOException {
+		overlay.commit();
+	}
 
-				long toSkip = end - start + 1L;
-				ret = in.skip(toSkip);
-				assert ret == toSkip;
-				out.write(val);
+	@Override
+	public List<Path> getModifiedFiles() {
+		return overlay.getModifiedFiles();
+	}
 
-				in.transferTo(out);
-			}
+	@Override
+	public String getOriginal(Path file) {
+		return overlay.getOriginal(file);
+	}
 
-			Files.copy(TMP_FILE, targetFile, REPLACE_EXISTING);
-		}
+	@Override
+	public List<String> getCandidates(String path) throws InvalidPathException, IOException {
+		return ((AbstractMutationIterator<?>) getMutations(path)).remainingCandidates();
 	}
 
-	public static class InvalidPathException extends Exception {}
+	@Override
+	public List<String> getCandidates(String path, List<String> mut) throws InvalidPathException, IOException {
+		return ((AbstractMutationIterator<?>) getMutations(path, mut)).remainingCandidates();
+	}
+
+	/**
+	 * Whether the element must be a compile-time constant: an annotation value, a case label, part of the
+	 * initializer of a final primitive or {@code String} variable, which may itself be used in such places, or an int
+	 * narrowed to a smaller type on assignment.
+	 */
+	static boolean isConstantContext(CtElement element) {
+		if (isNarrowed(element)) {
+			return true;
+		}
+		for (var e = element; e.isParentInitialized(); e = e.getParent()) {
+			var parent = e.getParent();
+			if (parent instanceof CtAnnotation || parent instanceof CtAnnotationMethod) {
+				return true;
+			}
+			if (parent instanceof CtCase && ((CtCase<?>) parent).getCaseExpressions().contains(e)) {
+				return true;
+			}
+			if (parent instanceof CtVariable && ((CtVariable<?>) parent).getDefaultExpression() == e) {
+				var variable = (CtVariable<?>) parent;
+				var type = variable.getType();
+				return variable.isFinal() && type != null
+						&& (type.isPrimitive() || "java.lang.String".equals(type.getQualifiedName()));
+			}
+			if (parent instanceof CtBlock || parent instanceof CtType) {
+				return false;
+			}
+		}
+		return false;
+	}
 
-	public AbstractMutator(List<String> sources) {
-		sources.forEach(launcher::addInputResource);
-		launcher.buildModel();
-		OUTPUT_DIR.toFile().mkdir();
+	/**
+	 * Whether the element is an int assigned to a short, byte or char, which only compiles for constants, e.g.
+	 * {@code short s = 5} or {@code byte[] b = {1, 2}}.
+	 */
+	private static boolean isNarrowed(CtElement element) {
+		if (!(element instanceof CtExpression) || !isType(((CtExpression<?>) element).getType(), "int")) {
+			return false;
+		}
+		var e = element;
+		while (e.isParentInitialized() && e.getParent() instanceof CtConditional
+				&& ((CtConditional<?>) e.getParent()).getCondition() != e) {
+			e = e.getParent();
+		}
+		if (!e.isParentInitialized()) {
+			return false;
+		}
+		var parent = e.getParent();
+		CtTypeReference<?> target = null;
+		if (parent instanceof CtVariable && ((CtVariable<?>) parent).getDefaultExpression() == e) {
+			target = ((CtVariable<?>) parent).getType();
+		} else if (parent instanceof CtAssignment && !(parent instanceof CtOperatorAssignment)
+				&& ((CtAssignment<?, ?>) parent).getAssignment() == e) {
+			target = ((CtAssignment<?, ?>) parent).getAssigned().getType();
+		} else if (parent instanceof CtNewArray && ((CtNewArray<?>) parent).getElements().contains(e)
+				&& ((CtNewArray<?>) parent).getType() instanceof CtArrayTypeReference) {
+			target = ((CtArrayTypeReference<?>) ((CtNewArray<?>) parent).getType()).getComponentType();
+		} else if (parent instanceof CtReturn) {
+			var method = parent.getParent(CtExecutable.class);
+			if (method instanceof CtMethod) {
+				target = ((CtMethod<?>) method).getType();
+			}
+		}
+		return isType(target, "short") || isType(target, "byte") || isType(target, "char")
+				|| isType(target, "java.lang.Short") || isType(target, "java.lang.Byte")
+				|| isType(target, "java.lang.Character");
 	}
 
-	public abstract MutationIterator getMutations(String path) throws InvalidPathException, IOException;
+	private static boolean isType(CtTypeReference<?> type, String name) {
+		return type != null && name.equals(type.getQualifiedName());
+	}
 
-	public abstract MutationIterator getMutations(String path, List<String> mut)
-			throws InvalidPathException, IOException;
+	/**
+	 * Resolves the literal at {@code path} and its candidate mutations for {@link MutationPlan}.
+	 */
+	public MutationPlan.Entry plan(String path) throws InvalidPathException, IOException {
+		var iterator = (AbstractMutationIterator<?>) getMutations(path);
+		return iterator.toEntry();
+	}
 }
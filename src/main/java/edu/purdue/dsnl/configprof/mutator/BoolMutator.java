@@ -1,9 +1,11 @@
 package edu.purdue.dsnl.configprof.mutator;
 
+import spoon.reflect.CtModel;
 import spoon.reflect.code.CtLiteral;
 import spoon.reflect.declaration.CtElement;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 class BoolMutator extends AbstractMutator {
@@ -39,8 +41,8 @@ class BoolMutator extends AbstractMutator {
 		}
 	}
 
-	public BoolMutator(List<String> sources) {
-		super(sources);
+	public BoolMutator(Path project, CtModel model) {
+		super(project, model);
 	}
 
 	@Override
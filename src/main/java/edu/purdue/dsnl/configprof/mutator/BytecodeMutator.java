@@ -0,0 +1,445 @@
+package edu.purdue.dsnl.configprof.mutator;
+
+import edu.purdue.dsnl.configprof.Digests;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Mutates literals in the class files of the reference build instead of the source files, so that no build is
+ * needed. Literals are located by their line and original value from the mutation plan, and the type and use of the
+ * instruction loading them. Those that cannot be located unambiguously, e.g. because they may be folded into other
+ * constants or share a line with an equal constant, are left to source mutation.
+ */
+@Log4j2
+public class BytecodeMutator {
+	private static final Pattern PACKAGE_PATTERN = Pattern.compile("#subPackage\\[name=([^]]+)]");
+
+	private static final double FLOAT_TOLERANCE = 1e-5;
+
+	/**
+	 * Characters of the operators that javac may fold a literal with, e.g. {@code x && true}, or that select between
+	 * constants, e.g. {@code FLAG ? 1 : 0}.
+	 */
+	private static final String OPERATORS = "+-*/%&|^<>!~?:=";
+
+	private final Path project;
+
+	private final Map<String, MutationPlan.Entry> plan;
+
+	private final ClassSource classSource;
+
+	/**
+	 * Located literals by path, null if not located.
+	 */
+	private final Map<String, Site> sites = new HashMap<>();
+
+	private final Map<String, ClassNode> classes = new HashMap<>();
+
+	/**
+	 * Source files by their paths in the plan, null if changed since the plan.
+	 */
+	private final Map<String, String> sources = new HashMap<>();
+
+	public interface ClassSource {
+		/**
+		 * @param packageDir e.g. {@code org/example}
+		 * @return class files of the reference build in a package by their names in a jar, or null if not
+		 * available
+		 */
+		Map<String, byte[]> getClasses(String packageDir) throws IOException;
+	}
+
+	/**
+	 * Instructions loading a literal, more than one if the literal is a field initializer copied to several
+	 * constructors.
+	 */
+	@Value
+	private static class Site {
+		String className;
+		List<MethodNode> methods;
+		List<Integer> indices;
+		/**
+		 * Type of the loaded constant, which may be wider than the literal.
+		 */
+		Class<?> type;
+	}
+
+	/**
+	 * @param project the original source code, which the plan refers to
+	 */
+	public BytecodeMutator(Path project, ClassSource classSource) throws IOException {
+		this.project = project;
+		plan = MutationPlan.load();
+		this.classSource = classSource;
+	}
+
+	/**
+	 * @return the mutated classes by their names in a jar, or null if some literal cannot be mutated in the class
+	 * files
+	 */
+	public synchronized Map<String, byte[]> mutate(List<String> paths, List<String> values) throws IOException {
+		var replacements = new HashMap<Site, AbstractInsnNode>();
+		for (int i = 0; i < paths.size(); i++) {
+			if (!sites.containsKey(paths.get(i))) {
+				sites.put(paths.get(i), locate(paths.get(i)));
+			}
+			var site = sites.get(paths.get(i));
+			if (site == null) {
+				return null;
+			}
+			var entry = plan.get(paths.get(i));
+			var value = parse(values.get(i), entry.getKind());
+			if (value == null) {
+				return null;
+			}
+			if (matches(value, parse(entry.getOriginal(), entry.getKind()))) {
+				continue;
+			}
+			var insn = toInsn(value, site.getType());
+			if (insn == null) {
+				return null;
+			}
+			replacements.put(site, insn);
+		}
+
+		var mutated = new HashMap<String, ClassNode>();
+		for (var e : replacements.entrySet()) {
+			var site = e.getKey();
+			var node = mutated.get(site.getClassName());
+			if (node == null) {
+				node = new ClassNode();
+				classes.get(site.getClassName()).accept(node);
+				mutated.put(site.getClassName(), node);
+			}
+			for (int j = 0; j < site.getMethods().size(); j++) {
+				var instructions = findMethod(node, site.getMethods().get(j)).instructions;
+				instructions.set(instructions.get(site.getIndices().get(j)), e.getValue().clone(null));
+			}
+		}
+
+		var ret = new HashMap<String, byte[]>();
+		for (var node : mutated.values()) {
+			var writer = new ClassWriter(0);
+			node.accept(writer);
+			ret.put(node.name + ".class", writer.toByteArray());
+		}
+		return ret;
+	}
+
+	private static MethodNode findMethod(ClassNode node, MethodNode method) {
+		return node.methods.stream().filter(m -> m.name.equals(method.name) && m.desc.equals(method.desc))
+				.findFirst().orElseThrow();
+	}
+
+	private Site locate(String path) throws IOException {
+		var entry = plan.get(path);
+		if (entry == null || entry.getKind().equals("Enum") || entry.isConstant()) {
+			return null;
+		}
+		var original = parse(entry.getOriginal(), entry.getKind());
+		if (original == null) {
+			return null;
+		}
+		if (!isIsolated(entry)) {
+			log.debug("{} may be folded with other constants", path);
+			return null;
+		}
+		boolean bool = entry.getKind().equals("Boolean");
+
+		var packageDir = new ArrayList<String>();
+		var matcher = PACKAGE_PATTERN.matcher(path);
+		while (matcher.find()) {
+			packageDir.add(matcher.group(1));
+		}
+		var packageClasses = classSource.getClasses(String.join("/", packageDir));
+		if (packageClasses == null) {
+			return null;
+		}
+
+		var sourceFile = Path.of(entry.getFile()).getFileName().toString();
+		String className = null;
+		var methods = new ArrayList<MethodNode>();
+		var indices = new ArrayList<Integer>();
+		Class<?> type = null;
+		for (var c : packageClasses.entrySet()) {
+			var node = new ClassNode();
+			new ClassReader(c.getValue()).accept(node, 0);
+			if (!sourceFile.equals(node.sourceFile)) {
+				continue;
+			}
+			for (var m : node.methods) {
+				int line = -1;
+				for (int i = 0; i < m.instructions.size(); i++) {
+					var insn = m.instructions.get(i);
+					if (insn instanceof LineNumberNode) {
+						line = ((LineNumberNode) insn).line;
+					} else if (line == entry.getLine()) {
+						var constant = getConstant(insn);
+						if (constant != null && matches(constant, original)
+								&& isLoadable(entry.getKind(), constant.getClass())) {
+							if (bool && !isBooleanUse(m, i)) {
+								log.debug("{} may not be the boolean literal", path);
+								return null;
+							}
+							if (className != null && !className.equals(node.name)) {
+								return null;
+							}
+							className = node.name;
+							classes.put(className, node);
+							methods.add(m);
+							indices.add(i);
+							type = constant.getClass();
+						}
+					}
+				}
+			}
+		}
+
+		if (methods.isEmpty()) {
+			log.debug("{} not found in class files", path);
+			return null;
+		}
+		if (methods.size() > 1 && (new HashSet<>(methods).size() < methods.size()
+				|| !methods.stream().allMatch(m -> m.name.equals("<init>")))) {
+			log.debug("{} is ambiguous in class files", path);
+			return null;
+		}
+		return new Site(className, methods, indices, type);
+	}
+
+	/**
+	 * Whether the literal is not an operand of an operator, judging by the source code around it.
+	 */
+	private boolean isIsolated(MutationPlan.Entry entry) throws IOException {
+		if (!sources.containsKey(entry.getFile())) {
+			var file = project.resolve(entry.getFile());
+			String source = null;
+			if (Files.isRegularFile(file) && Digests.hash(file).equals(entry.getHash())) {
+				source = Files.readString(file);
+			}
+			sources.put(entry.getFile(), source);
+		}
+		var source = sources.get(entry.getFile());
+		if (source == null || entry.getEnd() >= source.length()) {
+			return false;
+		}
+		int before = entry.getStart() - 1;
+		while (before >= 0 && Character.isWhitespace(source.charAt(before))) {
+			before--;
+		}
+		int after = entry.getEnd() + 1;
+		while (after < source.length() && Character.isWhitespace(source.charAt(after))) {
+			after++;
+		}
+		if (after < source.length() && OPERATORS.indexOf(source.charAt(after)) >= 0) {
+			return false;
+		}
+		if (before < 0 || OPERATORS.indexOf(source.charAt(before)) < 0) {
+			return true;
+		}
+		// A plain assignment or initializer
+		return source.charAt(before) == '=' && (before == 0 || OPERATORS.indexOf(source.charAt(before - 1)) < 0);
+	}
+
+	/**
+	 * Whether a constant of the type may load a literal of the kind, as is or widened.
+	 */
+	private static boolean isLoadable(String kind, Class<?> type) {
+		switch (kind) {
+			case "Boolean":
+				return type == Integer.class;
+			case "Integer":
+			case "Short":
+			case "Byte":
+				return true;
+			case "Long":
+				return type != Integer.class;
+			case "Float":
+				return type == Float.class || type == Double.class;
+			case "Double":
+				return type == Double.class;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Whether the instruction at the index loads a boolean, rather than an integer or the result of a condition: it
+	 * is not a jump target, and the next instruction takes a boolean.
+	 */
+	private static boolean isBooleanUse(MethodNode method, int index) {
+		var insn = method.instructions.get(index);
+		for (var prev = insn.getPrevious(); prev != null && prev.getOpcode() < 0; prev = prev.getPrevious()) {
+			if (prev instanceof LabelNode && isJumpTarget(method, (LabelNode) prev)) {
+				return false;
+			}
+		}
+		var next = insn.getNext();
+		while (next != null && next.getOpcode() < 0) {
+			next = next.getNext();
+		}
+		if (next == null) {
+			return false;
+		}
+		switch (next.getOpcode()) {
+			case Opcodes.ISTORE:
+			case Opcodes.BASTORE:
+				return true;
+			case Opcodes.PUTFIELD:
+			case Opcodes.PUTSTATIC:
+				return ((FieldInsnNode) next).desc.equals("Z");
+			case Opcodes.IRETURN:
+				return Type.getReturnType(method.desc) == Type.BOOLEAN_TYPE;
+			case Opcodes.INVOKEVIRTUAL:
+			case Opcodes.INVOKESPECIAL:
+			case Opcodes.INVOKESTATIC:
+			case Opcodes.INVOKEINTERFACE:
+				var args = Type.getArgumentTypes(((MethodInsnNode) next).desc);
+				return args.length > 0 && args[args.length - 1] == Type.BOOLEAN_TYPE;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean isJumpTarget(MethodNode method, LabelNode label) {
+		for (var insn : method.instructions) {
+			if (insn instanceof JumpInsnNode && ((JumpInsnNode) insn).label == label) {
+				return true;
+			} else if (insn instanceof TableSwitchInsnNode) {
+				var s = (TableSwitchInsnNode) insn;
+				if (s.dflt == label || s.labels.contains(label)) {
+					return true;
+				}
+			} else if (insn instanceof LookupSwitchInsnNode) {
+				var s = (LookupSwitchInsnNode) insn;
+				if (s.dflt == label || s.labels.contains(label)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the constant loaded by an instruction, booleans, chars, bytes and shorts being loaded as integers
+	 */
+	private static Number getConstant(AbstractInsnNode insn) {
+		int opcode = insn.getOpcode();
+		if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) {
+			return opcode - Opcodes.ICONST_0;
+		} else if (opcode == Opcodes.LCONST_0 || opcode == Opcodes.LCONST_1) {
+			return (long) (opcode - Opcodes.LCONST_0);
+		} else if (opcode >= Opcodes.FCONST_0 && opcode <= Opcodes.FCONST_2) {
+			return (float) (opcode - Opcodes.FCONST_0);
+		} else if (opcode == Opcodes.DCONST_0 || opcode == Opcodes.DCONST_1) {
+			return (double) (opcode - Opcodes.DCONST_0);
+		} else if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) {
+			return ((IntInsnNode) insn).operand;
+		} else if (insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof Number) {
+			return (Number) ((LdcInsnNode) insn).cst;
+		}
+		return null;
+	}
+
+	/**
+	 * Compares integral and floating-point values separately, as constants may be widened. Floating-point values in
+	 * the plan are rounded.
+	 */
+	private static boolean matches(Number a, Number b) {
+		boolean aFloating = a instanceof Float || a instanceof Double;
+		boolean bFloating = b instanceof Float || b instanceof Double;
+		if (aFloating != bFloating) {
+			return false;
+		} else if (aFloating) {
+			double x = a.doubleValue();
+			double y = b.doubleValue();
+			return x == y || Math.abs(x - y) <= FLOAT_TOLERANCE * Math.max(Math.abs(x), Math.abs(y));
+		} else {
+			return a.longValue() == b.longValue();
+		}
+	}
+
+	/**
+	 * @return booleans as 0 or 1, or null if not a numeric or boolean literal
+	 */
+	private static Number parse(String value, String kind) {
+		switch (kind) {
+			case "Boolean":
+				return Boolean.parseBoolean(value) ? 1 : 0;
+			case "Integer":
+			case "Long":
+			case "Short":
+			case "Byte":
+			case "Float":
+			case "Double":
+				try {
+					return NumberUtils.createNumber(value);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * @return null if the value does not fit the type
+	 */
+	private static AbstractInsnNode toInsn(Number value, Class<?> type) {
+		if (type == Integer.class) {
+			if (value instanceof Float || value instanceof Double
+					|| value.longValue() < Integer.MIN_VALUE || value.longValue() > Integer.MAX_VALUE) {
+				return null;
+			}
+			int v = value.intValue();
+			if (v >= -1 && v <= 5) {
+				return new InsnNode(Opcodes.ICONST_0 + v);
+			} else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+				return new IntInsnNode(Opcodes.BIPUSH, v);
+			} else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+				return new IntInsnNode(Opcodes.SIPUSH, v);
+			}
+			return new LdcInsnNode(v);
+		} else if (type == Long.class) {
+			if (value instanceof Float || value instanceof Double) {
+				return null;
+			}
+			long v = value.longValue();
+			return v == 0 || v == 1 ? new InsnNode(Opcodes.LCONST_0 + (int) v) : new LdcInsnNode(v);
+		} else if (type == Float.class) {
+			float v = value.floatValue();
+			return v == 0 || v == 1 || v == 2 ? new InsnNode(Opcodes.FCONST_0 + (int) v) : new LdcInsnNode(v);
+		} else {
+			double v = value.doubleValue();
+			return v == 0 || v == 1 ? new InsnNode(Opcodes.DCONST_0 + (int) v) : new LdcInsnNode(v);
+		}
+	}
+}
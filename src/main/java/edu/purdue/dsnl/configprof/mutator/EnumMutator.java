@@ -7,6 +7,7 @@ import edu.purdue.dsnl.configprof.filter.EnumParamProcessor;
 import lombok.Cleanup;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
+import spoon.reflect.CtModel;
 import spoon.reflect.code.CtFieldRead;
 import spoon.reflect.declaration.CtElement;
 import spoon.reflect.declaration.CtEnum;
@@ -15,12 +16,13 @@ import spoon.reflect.reference.CtFieldReference;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Log4j2
 class EnumMutator extends AbstractMutator {
-	private static final int NUM_ALT_VAL = 3;
+	static final int NUM_ALT_VAL = 3;
 
 	private final Map<String, List<String>> frameworkEnums;
 
@@ -79,6 +81,11 @@ class EnumMutator extends AbstractMutator {
 			}
 		}
 
+		@Override
+		protected String getKind() {
+			return "Enum";
+		}
+
 		private CtFieldReference<?> getRef(String name) {
 			var clone = original.clone();
 			clone.setSimpleName(name);
@@ -86,16 +93,21 @@ class EnumMutator extends AbstractMutator {
 		}
 	}
 
+	public EnumMutator(Path project, CtModel model) throws IOException {
+		super(project, model);
+		frameworkEnums = loadFrameworkEnums();
+	}
+
+	/**
+	 * @return field names of the enums in the configured definition file by their type names
+	 */
 	@SneakyThrows(CsvException.class)
-	public EnumMutator(List<String> sources) throws IOException {
-		super(sources);
-		if (TestState.getEnumDefinitionFile() != null) {
-			@Cleanup var reader = new CSVReader(Files.newBufferedReader(TestState.getEnumDefinitionFile()));
-			frameworkEnums = reader.readAll().stream().collect(
-					Collectors.toMap(p -> p[0], p -> Arrays.asList(p[1].split(" "))));
-		} else {
-			frameworkEnums = Map.of();
+	static Map<String, List<String>> loadFrameworkEnums() throws IOException {
+		if (TestState.getEnumDefinitionFile() == null) {
+			return Map.of();
 		}
+		@Cleanup var reader = new CSVReader(Files.newBufferedReader(TestState.getEnumDefinitionFile()));
+		return reader.readAll().stream().collect(Collectors.toMap(p -> p[0], p -> Arrays.asList(p[1].split(" "))));
 	}
 
 	@Override
@@ -7,7 +7,10 @@ import java.util.Iterator;
 public interface MutationIterator extends Iterator<String>, Closeable {
 	String nextOrOriginal();
 
-	void resetFile() throws IOException;
+	/**
+	 * Reverts the literal to its original value. Takes effect on the next {@link AbstractMutator#commit()}.
+	 */
+	void resetFile();
 
 	@Override
 	default void close() throws IOException {
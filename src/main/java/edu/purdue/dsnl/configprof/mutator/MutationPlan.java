@@ -0,0 +1,81 @@
+package edu.purdue.dsnl.configprof.mutator;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvException;
+import lombok.Cleanup;
+import lombok.Data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything needed to mutate the literals without a Spoon model, computed once by {@code init}.
+ */
+public class MutationPlan {
+	private static final Path PLAN_FILE = Path.of("mutation-plan.csv");
+
+	private MutationPlan() {}
+
+	@Data
+	public static class Entry {
+		private final String path;
+		/**
+		 * Source file relative to the project root.
+		 */
+		private final String file;
+		private final int start;
+		/**
+		 * Inclusive, as in {@link spoon.reflect.cu.SourcePosition#getSourceEnd()}.
+		 */
+		private final int end;
+		private final int line;
+		/**
+		 * Simple class name of the original value, or {@code Enum} for enum literals.
+		 */
+		private final String kind;
+		private final String original;
+		private final List<String> candidates;
+		private final String hash;
+		/**
+		 * Whether the literal is in a constant context, e.g. a case label, an annotation value or an int assigned to a
+		 * short, where it cannot be replaced by a method call.
+		 */
+		private final boolean constant;
+	}
+
+	public static boolean exists() {
+		return Files.exists(PLAN_FILE);
+	}
+
+	public static void save(List<Entry> entries) throws IOException {
+		@Cleanup var writer = new CSVWriter(Files.newBufferedWriter(PLAN_FILE));
+		for (var e : entries) {
+			writer.writeNext(new String[]{
+					e.path, e.file, String.valueOf(e.start), String.valueOf(e.end), String.valueOf(e.line),
+					e.kind, e.original, String.join(" ", e.candidates), e.hash, String.valueOf(e.constant)
+			});
+		}
+	}
+
+	public static Map<String, Entry> load() throws IOException {
+		@Cleanup var reader = new CSVReader(Files.newBufferedReader(PLAN_FILE));
+		var entries = new LinkedHashMap<String, Entry>();
+		try {
+			for (var r : reader.readAll()) {
+				var candidates = r[7].isEmpty() ? List.<String>of() : Arrays.asList(r[7].split(" "));
+				boolean constant = r.length > 9 && Boolean.parseBoolean(r[9]);
+				entries.put(r[0], new Entry(r[0], r[1], Integer.parseInt(r[2]), Integer.parseInt(r[3]),
+						Integer.parseInt(r[4]), r[5], r[6], candidates, r[8], constant));
+			}
+		} catch (CsvException e) {
+			throw new IOException(e);
+		}
+		return entries;
+	}
+}
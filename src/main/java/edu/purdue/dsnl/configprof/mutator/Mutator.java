@@ -0,0 +1,35 @@
+package edu.purdue.dsnl.configprof.mutator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface Mutator {
+	class InvalidPathException extends Exception {}
+
+	MutationIterator getMutations(String path) throws InvalidPathException, IOException;
+
+	MutationIterator getMutations(String path, List<String> mut) throws InvalidPathException, IOException;
+
+	/**
+	 * Same mutations as {@link #getMutations(String)}, without touching the source files.
+	 */
+	List<String> getCandidates(String path) throws InvalidPathException, IOException;
+
+	List<String> getCandidates(String path, List<String> mut) throws InvalidPathException, IOException;
+
+	/**
+	 * Writes the pending mutations, and the reverts of the reset ones, to the source files.
+	 */
+	void commit() throws IOException;
+
+	/**
+	 * @return source files whose committed content differs from the original
+	 */
+	List<Path> getModifiedFiles();
+
+	/**
+	 * @return content of a modified source file before any mutation
+	 */
+	String getOriginal(Path file);
+}
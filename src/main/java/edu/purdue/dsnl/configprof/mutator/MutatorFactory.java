@@ -1,18 +1,57 @@
 package edu.purdue.dsnl.configprof.mutator;
 
+import edu.purdue.dsnl.configprof.Digests;
 import edu.purdue.dsnl.configprof.LiteralType;
+import edu.purdue.dsnl.configprof.ModelCache;
+import lombok.extern.log4j.Log4j2;
+import spoon.reflect.CtModel;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+@Log4j2
 public class MutatorFactory {
 	private MutatorFactory() {}
 
-	public static AbstractMutator createMutator(LiteralType type, List<String> sources) throws IOException {
+	/**
+	 * Uses the mutation plan if it is present and matches the sources, otherwise falls back to the Spoon model.
+	 */
+	public static Mutator createMutator(LiteralType type, Path project, List<String> sources) throws IOException {
+		if (MutationPlan.exists()) {
+			var plan = MutationPlan.load();
+			if (matchesSources(plan, project)) {
+				log.info("Mutates with the mutation plan");
+				return new PlanMutator(type, project, plan);
+			}
+		}
+		return createMutator(type, project, ModelCache.load(sources).getModel());
+	}
+
+	public static AbstractMutator createMutator(LiteralType type, Path project, CtModel model) throws IOException {
 		return switch (type) {
-			case NUM -> new NumericMutator(sources);
-			case BOOL -> new BoolMutator(sources);
-			case ENUM -> new EnumMutator(sources);
+			case NUM -> new NumericMutator(project, model);
+			case BOOL -> new BoolMutator(project, model);
+			case ENUM -> new EnumMutator(project, model);
 		};
 	}
+
+	private static boolean matchesSources(Map<String, MutationPlan.Entry> plan, Path project) throws IOException {
+		var hashes = new HashMap<String, String>();
+		for (var e : plan.values()) {
+			var hash = hashes.get(e.getFile());
+			if (hash == null) {
+				var file = project.resolve(e.getFile());
+				hash = file.toFile().isFile() ? Digests.hash(file) : "";
+				hashes.put(e.getFile(), hash);
+			}
+			if (!hash.equals(e.getHash())) {
+				log.warn("Mutation plan is stale for {}", e.getFile());
+				return false;
+			}
+		}
+		return true;
+	}
 }
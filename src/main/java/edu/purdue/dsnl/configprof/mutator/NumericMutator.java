@@ -2,10 +2,12 @@ package edu.purdue.dsnl.configprof.mutator;
 
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.math.NumberUtils;
+import spoon.reflect.CtModel;
 import spoon.reflect.code.CtLiteral;
 import spoon.reflect.declaration.CtElement;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,17 +31,7 @@ class NumericMutator extends AbstractMutator {
 
 		@Override
 		protected String valueToString(Number value) {
-			String ret;
-			if (original instanceof Float || original instanceof Double) {
-				ret = String.format("%g", value);
-			} else {
-				ret = value.toString();
-			}
-			if (original instanceof Long) {
-				ret += 'L';
-			} else if (original instanceof Float) {
-				ret += 'f';
-			}
+			var ret = toLiteral(value, getKind());
 			log.debug("{}({}): {}({}) -> {}", this.getClass(), original.getClass(), value, value.getClass(), ret);
 			return ret;
 		}
@@ -90,8 +82,26 @@ class NumericMutator extends AbstractMutator {
 		}
 	}
 
-	public NumericMutator(List<String> sources) {
-		super(sources);
+	/**
+	 * @param kind simple class name of the original literal value
+	 */
+	static String toLiteral(Number value, String kind) {
+		String ret;
+		if (kind.equals("Float") || kind.equals("Double")) {
+			ret = String.format("%g", value);
+		} else {
+			ret = value.toString();
+		}
+		if (kind.equals("Long")) {
+			ret += 'L';
+		} else if (kind.equals("Float")) {
+			ret += 'f';
+		}
+		return ret;
+	}
+
+	public NumericMutator(Path project, CtModel model) {
+		super(project, model);
 	}
 
 	@Override
@@ -0,0 +1,163 @@
+package edu.purdue.dsnl.configprof.mutator;
+
+import edu.purdue.dsnl.configprof.LiteralType;
+import lombok.SneakyThrows;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Applies mutations from a {@link MutationPlan} without loading the Spoon model. Enum literals of framework types have
+ * no candidates in the plan, as the enum definitions are configured after it is made, so they are looked up in the
+ * definitions instead.
+ */
+class PlanMutator implements Mutator {
+	private final LiteralType type;
+
+	private final Path project;
+
+	private final Map<String, MutationPlan.Entry> plan;
+
+	/**
+	 * Field names of the framework enums by their type names, with {@code .} separating nested types.
+	 */
+	private final Map<String, List<String>> frameworkEnums;
+
+	private final SourceOverlay overlay = new SourceOverlay();
+
+	private class PlannedMutationIterator implements MutationIterator {
+		private final MutationPlan.Entry entry;
+
+		private final Path targetFile;
+
+		private final Iterator<String> candidates;
+
+		PlannedMutationIterator(String path, List<String> mut) throws InvalidPathException, IOException {
+			entry = plan.get(path);
+			if (entry == null) {
+				throw new InvalidPathException();
+			}
+			if (mut != null) {
+				candidates = mut.stream().map(this::normalize).collect(Collectors.toList()).iterator();
+			} else {
+				candidates = getPlannedCandidates(entry).iterator();
+			}
+			targetFile = project.resolve(entry.getFile());
+		}
+
+		/**
+		 * Same as {@code valueToString(stringToValue(value))} of the Spoon based iterators.
+		 */
+		private String normalize(String value) {
+			return switch (type) {
+				case NUM -> NumericMutator.toLiteral(NumberUtils.createNumber(value), entry.getKind());
+				case BOOL -> Boolean.valueOf(value).toString();
+				case ENUM -> {
+					var original = entry.getOriginal();
+					yield original.substring(0, original.lastIndexOf('.') + 1)
+							+ value.substring(value.lastIndexOf('.') + 1);
+				}
+			};
+		}
+
+		@Override
+		public boolean hasNext() {
+			return candidates.hasNext();
+		}
+
+		@SneakyThrows(IOException.class)
+		@Override
+		public String next() {
+			var candidate = candidates.next();
+			overlay.load(targetFile);
+			overlay.setEdit(targetFile, entry.getStart(), entry.getEnd(), candidate);
+			return candidate;
+		}
+
+		@Override
+		public String nextOrOriginal() {
+			if (hasNext()) {
+				return next();
+			} else {
+				return entry.getOriginal();
+			}
+		}
+
+		@Override
+		public void resetFile() {
+			overlay.clearEdit(targetFile, entry.getStart());
+		}
+	}
+
+	PlanMutator(LiteralType type, Path project, Map<String, MutationPlan.Entry> plan) throws IOException {
+		this.type = type;
+		this.project = project;
+		this.plan = plan;
+		if (type == LiteralType.ENUM) {
+			frameworkEnums = EnumMutator.loadFrameworkEnums().entrySet().stream()
+					.collect(Collectors.toMap(e -> e.getKey().replace('$', '.'), Map.Entry::getValue));
+		} else {
+			frameworkEnums = Map.of();
+		}
+	}
+
+	private List<String> getPlannedCandidates(MutationPlan.Entry entry) {
+		if (type != LiteralType.ENUM || !entry.getCandidates().isEmpty()) {
+			return entry.getCandidates();
+		}
+		var original = entry.getOriginal();
+		int dot = original.lastIndexOf('.');
+		var fields = frameworkEnums.get(original.substring(0, dot));
+		if (fields == null) {
+			return List.of();
+		}
+		var name = original.substring(dot + 1);
+		return fields.stream().filter(f -> !f.equals(name)).limit(EnumMutator.NUM_ALT_VAL)
+				.map(f -> original.substring(0, dot + 1) + f).collect(Collectors.toList());
+	}
+
+	@Override
+	public MutationIterator getMutations(String path) throws InvalidPathException, IOException {
+		return new PlannedMutationIterator(path, null);
+	}
+
+	@Override
+	public MutationIterator getMutations(String path, List<String> mut) throws InvalidPathException, IOException {
+		return new PlannedMutationIterator(path, mut);
+	}
+
+	@Override
+	public List<String> getCandidates(String path) throws InvalidPathException, IOException {
+		var candidates = new ArrayList<String>();
+		new PlannedMutationIterator(path, null).candidates.forEachRemaining(candidates::add);
+		return candidates;
+	}
+
+	@Override
+	public List<String> getCandidates(String path, List<String> mut) throws InvalidPathException, IOException {
+		var candidates = new ArrayList<String>();
+		new PlannedMutationIterator(path, mut).candidates.forEachRemaining(candidates::add);
+		return candidates;
+	}
+
+	@Override
+	public void commit() throws IOException {
+		overlay.commit();
+	}
+
+	@Override
+	public List<Path> getModifiedFiles() {
+		return overlay.getModifiedFiles();
+	}
+
+	@Override
+	public String getOriginal(Path file) {
+		return overlay.getOriginal(file);
+	}
+}
@@ -0,0 +1,101 @@
+package edu.purdue.dsnl.configprof.mutator;
+
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the original content of the mutated source files in memory, together with the pending replacements of
+ * literal ranges. Files are only written on {@link #commit()}, and only if their content differs from what was
+ * last written, so each file is written at most once per build.
+ */
+@Log4j2
+class SourceOverlay {
+	private final Map<Path, SourceFile> files = new HashMap<>();
+
+	private static class SourceFile {
+		final String original;
+
+		/**
+		 * Replacements keyed by the start offset in {@link #original}, values being the inclusive end offset and the
+		 * replacement text.
+		 */
+		final NavigableMap<Integer, Edit> edits = new TreeMap<>();
+
+		String written;
+
+		SourceFile(String original) {
+			this.original = original;
+			written = original;
+		}
+
+		String render() {
+			if (edits.isEmpty()) {
+				return original;
+			}
+			var builder = new StringBuilder(original.length() + 16 * edits.size());
+			int pos = 0;
+			for (var e : edits.entrySet()) {
+				builder.append(original, pos, e.getKey()).append(e.getValue().getValue());
+				pos = e.getValue().getEnd() + 1;
+			}
+			return builder.append(original, pos, original.length()).toString();
+		}
+	}
+
+	@Value
+	private static class Edit {
+		int end;
+		String value;
+	}
+
+	void load(Path file) throws IOException {
+		if (!files.containsKey(file)) {
+			files.put(file, new SourceFile(Files.readString(file)));
+		}
+	}
+
+	void setEdit(Path file, int start, int end, String value) {
+		files.get(file).edits.put(start, new Edit(end, value));
+	}
+
+	void clearEdit(Path file, int start) {
+		var sourceFile = files.get(file);
+		if (sourceFile != null) {
+			sourceFile.edits.remove(start);
+		}
+	}
+
+	/**
+	 * @return files whose committed content differs from the original
+	 */
+	List<Path> getModifiedFiles() {
+		return files.entrySet().stream().filter(e -> !e.getValue().written.equals(e.getValue().original))
+				.map(Map.Entry::getKey).sorted().collect(Collectors.toList());
+	}
+
+	String getOriginal(Path file) {
+		return files.get(file).original;
+	}
+
+	void commit() throws IOException {
+		for (var e : files.entrySet()) {
+			var file = e.getValue();
+			var content = file.render();
+			if (!content.equals(file.written)) {
+				log.debug("Writes {}", e.getKey());
+				Files.writeString(e.getKey(), content);
+				file.written = content;
+			}
+		}
+	}
+}
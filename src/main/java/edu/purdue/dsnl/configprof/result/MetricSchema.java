@@ -0,0 +1,67 @@
+package edu.purdue.dsnl.configprof.result;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned metric names, each given the next index the first time it is seen. Indices are never reused, so the values
+ * of a {@link ResultMap} can be kept in an array by index. Metric names are few and repeat in every run, so one schema
+ * is shared by a whole test campaign.
+ */
+public class MetricSchema {
+	private static final MetricSchema DEFAULT = new MetricSchema();
+
+	private final Map<String, Integer> indices = new ConcurrentHashMap<>();
+
+	/**
+	 * Grown by copying, so that readers see a complete array without locking.
+	 */
+	private volatile String[] names = new String[8];
+
+	private int size;
+
+	public static MetricSchema getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @return the index of the metric, registering it if new
+	 */
+	public int register(String name) {
+		var idx = indices.get(name);
+		if (idx != null) {
+			return idx;
+		}
+		synchronized (this) {
+			idx = indices.get(name);
+			if (idx != null) {
+				return idx;
+			}
+			var n = names;
+			if (size == n.length) {
+				n = Arrays.copyOf(n, size * 2);
+			}
+			n[size] = name;
+			names = n;
+			indices.put(name, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * @return the index of the metric, or -1 if not registered
+	 */
+	public int indexOf(String name) {
+		var idx = indices.get(name);
+		return idx != null ? idx : -1;
+	}
+
+	public String getName(int idx) {
+		return names[idx];
+	}
+
+	public int size() {
+		return indices.size();
+	}
+}
@@ -2,6 +2,7 @@ package edu.purdue.dsnl.configprof.result;
 
 import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.Setter;
 
 import java.util.ArrayList;
@@ -11,13 +12,39 @@ import java.util.List;
 public class MutResult {
 	private final List<String> paths;
 
+	/**
+	 * Index of the paths in the literal paths, which the mileage of the reference results counts.
+	 */
+	private Integer mileage;
+
 	@Setter(AccessLevel.NONE)
 	private List<ResultPerMut> mutations = new ArrayList<>();
 
+	/**
+	 * Group testing only: whether the group is split and its literals tested again in smaller groups.
+	 */
+	private Boolean bisected;
+
+	@Setter(AccessLevel.NONE)
+	@Getter(AccessLevel.NONE)
+	private transient String device;
+
+	@Setter(AccessLevel.NONE)
+	@Getter(AccessLevel.NONE)
+	private transient Integer refEpoch;
+
+	@Setter(AccessLevel.NONE)
+	@Getter(AccessLevel.NONE)
+	private transient Integer refMileage;
+
 	public enum Status {
 		FINISH,
 		ABORT_COMPILE,
 		ABORT_EXEC,
+		/**
+		 * The build is identical to the reference, so it is not tested.
+		 */
+		EQUIVALENT,
 	}
 
 	private static class ResultPerMut {
@@ -26,29 +53,76 @@ public class MutResult {
 		List<ResultMap> results;
 		Status status;
 		String log;
+		/**
+		 * Null if there is only one device.
+		 */
+		String device;
+		/**
+		 * Adaptive reference runs only: the epoch of the reference results compared with.
+		 */
+		Integer refEpoch;
+		/**
+		 * Mileage of the reference results compared with, null if they run alongside.
+		 */
+		Integer refMileage;
+	}
+
+	/**
+	 * Sets the device of the results added afterwards.
+	 */
+	public void setDevice(String device) {
+		this.device = device;
+	}
+
+	/**
+	 * Sets the reference epoch of the results added afterwards.
+	 */
+	public void setRefEpoch(Integer refEpoch) {
+		this.refEpoch = refEpoch;
+	}
+
+	/**
+	 * Sets the mileage of the reference results compared with by the results added afterwards.
+	 */
+	public void setRefMileage(Integer refMileage) {
+		this.refMileage = refMileage;
+	}
+
+	/**
+	 * Appends the results of another record of the same paths.
+	 */
+	public void merge(MutResult other) {
+		mutations.addAll(other.mutations);
+	}
+
+	public void addResults(List<String> mutation, Status status) {
+		newResult(mutation, status);
 	}
 
 	public void addResults(List<String> mutation, Status status, List<ResultMap> mutationResults) {
-		var result = addResults(mutation, status);
+		var result = newResult(mutation, status);
 		result.results = mutationResults;
 	}
 
 	public void addResults(List<String> mutation, Status status,
 			List<ResultMap> refResults, List<ResultMap> mutResults) {
-		var result = addResults(mutation, status);
+		var result = newResult(mutation, status);
 		result.refResults = refResults;
 		result.results = mutResults;
 	}
 
 	public void addResults(List<String> mutation, Status status, String log) {
-		var result = addResults(mutation, status);
+		var result = newResult(mutation, status);
 		result.log = log;
 	}
 
-	private ResultPerMut addResults(List<String> mutation, Status status) {
+	private ResultPerMut newResult(List<String> mutation, Status status) {
 		var result = new ResultPerMut();
 		result.mutation = mutation;
 		result.status = status;
+		result.device = device;
+		result.refEpoch = refEpoch;
+		result.refMileage = refMileage;
 		mutations.add(result);
 		return result;
 	}
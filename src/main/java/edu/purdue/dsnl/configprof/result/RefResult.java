@@ -7,6 +7,19 @@ import java.util.List;
 @Value
 public class RefResult {
 	int mileage;
+	/**
+	 * Null if there is only one device.
+	 */
+	String device;
+	/**
+	 * Adaptive reference runs only: the epoch started by these results, or the one a probe is compared with, which is
+	 * the mileage the epoch starts at.
+	 */
+	Integer epoch;
+	/**
+	 * Adaptive reference runs only: whether this is a single probe run checking for drift.
+	 */
+	Boolean probe;
 	List<ResultMap> dummyResults;
 	List<ResultMap> results;
 }
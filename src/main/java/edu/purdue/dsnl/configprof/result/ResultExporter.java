@@ -0,0 +1,112 @@
+package edu.purdue.dsnl.configprof.result;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.opencsv.CSVWriter;
+import lombok.Cleanup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a {@link ResultStore} back to the JSON that {@link ResultSerializer} writes, or to CSV with one row per
+ * metric of each run, streaming one record at a time.
+ */
+public class ResultExporter {
+	private static final String[] CSV_HEADER = {
+			"record", "paths", "mutation", "status", "device", "mileage", "set", "trial", "metric", "value"};
+
+	/**
+	 * Result lists of a record, as in the JSON.
+	 */
+	private static final List<String> SETS = List.of("refResults", "results", "dummyResults");
+
+	private ResultExporter() {}
+
+	public static void toJson(Path store, Path out) throws IOException {
+		var gson = new GsonBuilder().setPrettyPrinting().create();
+		@Cleanup var reader = new ResultStore.Reader(store);
+		@Cleanup var writer = Files.newBufferedWriter(out);
+		writer.write('[');
+		writer.newLine();
+		boolean first = true;
+		ResultStore.Record r;
+		while ((r = reader.next()) != null) {
+			if (!first) {
+				writer.write(',');
+				writer.newLine();
+			}
+			first = false;
+			gson.toJson(r.getValue(), writer);
+		}
+		writer.write(']');
+		writer.newLine();
+	}
+
+	public static void toCsv(Path store, Path out) throws IOException {
+		@Cleanup var reader = new ResultStore.Reader(store);
+		@Cleanup var writer = new CSVWriter(Files.newBufferedWriter(out));
+		writer.writeNext(CSV_HEADER);
+		int idx = 0;
+		ResultStore.Record r;
+		while ((r = reader.next()) != null) {
+			var record = r.getValue().getAsJsonObject();
+			var row = new String[CSV_HEADER.length];
+			row[0] = String.valueOf(idx++);
+			row[1] = join(record.getAsJsonArray("paths"));
+			row[5] = getString(record, "mileage");
+			var mutations = record.getAsJsonArray("mutations");
+			if (mutations == null) {
+				row[4] = getString(record, "device");
+				writeSets(writer, row, record);
+				continue;
+			}
+			for (var m : mutations) {
+				var mutation = m.getAsJsonObject();
+				row[2] = join(mutation.getAsJsonArray("mutation"));
+				row[3] = getString(mutation, "status");
+				row[4] = getString(mutation, "device");
+				writeSets(writer, row, mutation);
+			}
+		}
+	}
+
+	private static void writeSets(CSVWriter writer, String[] row, JsonObject object) {
+		for (var s : SETS) {
+			var results = object.getAsJsonArray(s);
+			if (results == null) {
+				continue;
+			}
+			row[6] = s;
+			for (int i = 0; i < results.size(); i++) {
+				row[7] = String.valueOf(i);
+				for (var m : results.get(i).getAsJsonObject().entrySet()) {
+					row[8] = m.getKey();
+					row[9] = m.getValue().getAsString();
+					writer.writeNext(row);
+				}
+			}
+		}
+	}
+
+	private static String join(JsonArray array) {
+		if (array == null) {
+			return "";
+		}
+		var strings = new ArrayList<String>();
+		for (var e : array) {
+			strings.add(e.getAsString());
+		}
+		return String.join(",", strings);
+	}
+
+	private static String getString(JsonObject object, String member) {
+		JsonElement e = object.get(member);
+		return e == null || e.isJsonNull() ? "" : e.getAsString();
+	}
+}
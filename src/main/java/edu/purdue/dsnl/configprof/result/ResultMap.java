@@ -1,6 +1,208 @@
 package edu.purdue.dsnl.configprof.result;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.ObjDoubleConsumer;
 
-public class ResultMap extends HashMap<String, Number> {
+/**
+ * Metrics of a run by name. The values are kept unboxed in an array indexed by {@link MetricSchema}, and boxed only
+ * when read through the {@link Map} interface, integral values as longs so that they serialize as they were put, e.g.
+ * times in milliseconds. Serializes to a JSON object of the metrics, as a map would. NaN stands for a missing metric,
+ * so it cannot be a value.
+ */
+public class ResultMap extends AbstractMap<String, Number> {
+	/**
+	 * Bound of the integers a double holds exactly.
+	 */
+	private static final double MAX_EXACT = 0x1p53;
+
+	private final MetricSchema schema;
+
+	private double[] values;
+
+	private int size;
+
+	public ResultMap() {
+		this(MetricSchema.getDefault());
+	}
+
+	public ResultMap(MetricSchema schema) {
+		this.schema = schema;
+		values = newValues(schema.size());
+	}
+
+	public void put(String metric, double value) {
+		if (Double.isNaN(value)) {
+			throw new IllegalArgumentException("NaN value of " + metric);
+		}
+		int idx = schema.register(metric);
+		if (idx >= values.length) {
+			int length = values.length;
+			values = Arrays.copyOf(values, Math.max(idx + 1, schema.size()));
+			Arrays.fill(values, length, values.length, Double.NaN);
+		}
+		if (Double.isNaN(values[idx])) {
+			size++;
+		}
+		values[idx] = value;
+	}
+
+	@Override
+	public Number put(String metric, Number value) {
+		var old = get(metric);
+		put(metric, value.doubleValue());
+		return old;
+	}
+
+	/**
+	 * @return the value, or NaN if missing
+	 */
+	public double getDouble(String metric) {
+		return getDouble(schema.indexOf(metric));
+	}
+
+	private double getDouble(int idx) {
+		return idx >= 0 && idx < values.length ? values[idx] : Double.NaN;
+	}
+
+	@Override
+	public Number get(Object metric) {
+		if (!(metric instanceof String)) {
+			return null;
+		}
+		double value = getDouble((String) metric);
+		return Double.isNaN(value) ? null : box(value);
+	}
+
+	@Override
+	public boolean containsKey(Object metric) {
+		return metric instanceof String && !Double.isNaN(getDouble((String) metric));
+	}
+
+	@Override
+	public Number remove(Object metric) {
+		var old = get(metric);
+		if (old != null) {
+			values[schema.indexOf((String) metric)] = Double.NaN;
+			size--;
+		}
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(values, Double.NaN);
+		size = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Visits the metrics in the order they are registered, without boxing.
+	 */
+	public void forEachDouble(ObjDoubleConsumer<String> action) {
+		for (int i = 0; i < values.length; i++) {
+			if (!Double.isNaN(values[i])) {
+				action.accept(schema.getName(i), values[i]);
+			}
+		}
+	}
+
+	public double sum() {
+		double sum = 0;
+		for (double v : values) {
+			if (!Double.isNaN(v)) {
+				sum += v;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the values of a metric in the results having it, in order
+	 */
+	public static double[] column(List<ResultMap> results, String metric) {
+		var column = new double[results.size()];
+		int n = 0;
+		for (var r : results) {
+			double v = r.getDouble(r.schema.indexOf(metric));
+			if (!Double.isNaN(v)) {
+				column[n++] = v;
+			}
+		}
+		return n == column.length ? column : Arrays.copyOf(column, n);
+	}
+
+	@Override
+	public Set<Entry<String, Number>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<String, Number>> iterator() {
+				return new Iterator<>() {
+					private int next = advance(0);
+
+					private int last = -1;
+
+					private int advance(int from) {
+						while (from < values.length && Double.isNaN(values[from])) {
+							from++;
+						}
+						return from;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next < values.length;
+					}
+
+					@Override
+					public Entry<String, Number> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						last = next;
+						next = advance(next + 1);
+						return new SimpleImmutableEntry<>(schema.getName(last), box(values[last]));
+					}
+
+					@Override
+					public void remove() {
+						if (last < 0 || Double.isNaN(values[last])) {
+							throw new IllegalStateException();
+						}
+						values[last] = Double.NaN;
+						size--;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private static Number box(double value) {
+		boolean negativeZero = value == 0 && 1 / value < 0;
+		if (value == Math.rint(value) && Math.abs(value) <= MAX_EXACT && !negativeZero) {
+			return (long) value;
+		}
+		return value;
+	}
+
+	private static double[] newValues(int length) {
+		var values = new double[length];
+		Arrays.fill(values, Double.NaN);
+		return values;
+	}
 }
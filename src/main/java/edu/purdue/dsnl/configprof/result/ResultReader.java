@@ -0,0 +1,80 @@
+package edu.purdue.dsnl.configprof.result;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads result records one at a time, from either the JSON of {@link ResultSerializer} or a {@link ResultStore}.
+ */
+public class ResultReader implements Closeable {
+	private final JsonReader json;
+
+	private final ResultStore.Reader store;
+
+	public ResultReader(Path file) throws IOException {
+		if (isStore(file)) {
+			store = new ResultStore.Reader(file);
+			json = null;
+		} else {
+			store = null;
+			json = new JsonReader(Files.newBufferedReader(file));
+			if (json.peek() == JsonToken.END_DOCUMENT) {
+				return;
+			}
+			json.beginArray();
+		}
+	}
+
+	/**
+	 * A JSON file cut short, e.g. without the closing bracket of a test still running or crashed, ends after its last
+	 * complete record.
+	 *
+	 * @return the next record, or null at the end
+	 */
+	public JsonObject next() throws IOException {
+		if (store != null) {
+			var r = store.next();
+			return r != null ? r.getValue().getAsJsonObject() : null;
+		}
+		try {
+			if (json.peek() == JsonToken.END_DOCUMENT || json.peek() == JsonToken.END_ARRAY) {
+				return null;
+			}
+			return JsonParser.parseReader(json).getAsJsonObject();
+		} catch (EOFException e) {
+			return null;
+		} catch (JsonParseException e) {
+			if (e.getCause() instanceof EOFException) {
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (store != null) {
+			store.close();
+		} else {
+			json.close();
+		}
+	}
+
+	private static boolean isStore(Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			var magic = in.readNBytes(ResultStore.MAGIC.length);
+			return Arrays.equals(magic, ResultStore.MAGIC);
+		}
+	}
+}
@@ -4,14 +4,13 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import java.io.BufferedWriter;
-import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
 import static java.nio.file.StandardOpenOption.*;
 
-public class ResultSerializer implements Closeable {
+public class ResultSerializer implements ResultWriter {
 	private final BufferedWriter writer;
 
 	private final Gson gson;
@@ -24,7 +23,8 @@ public class ResultSerializer implements Closeable {
 		append = outFile.toFile().length() != 0;
 	}
 
-	public void toJson(Object src) throws IOException {
+	@Override
+	public void write(Object src) throws IOException {
 		if (append) {
 			writer.write(',');
 			writer.newLine();
@@ -37,6 +37,7 @@ public class ResultSerializer implements Closeable {
 		writer.flush();
 	}
 
+	@Override
 	public void finish() throws IOException {
 		writer.write(']');
 		writer.newLine();
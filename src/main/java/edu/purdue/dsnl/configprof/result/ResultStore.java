@@ -0,0 +1,431 @@
+package edu.purdue.dsnl.configprof.result;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import lombok.Value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Compact append-only store of result records. Each record is length-prefixed and checksummed, so that a crash leaves
+ * at most a torn record at the end, which is dropped when the store is opened again. Metric names and other strings
+ * are interned: each is written once in a string record, and referred to by its index afterwards.
+ * <p>
+ * A record of mutation results is indexed by its paths, and by its paths with each of its mutations, see
+ * {@link #pathKey} and {@link #mutationKey}. The index is read from the record headers without decoding the results.
+ */
+public class ResultStore implements ResultWriter {
+	static final byte[] MAGIC = "CPRS".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte VERSION = 1;
+
+	private static final int HEADER_LENGTH = MAGIC.length + 1;
+
+	private static final byte STRING_RECORD = 1;
+
+	private static final byte DATA_RECORD = 2;
+
+	private static final byte NULL = 0;
+	private static final byte FALSE = 1;
+	private static final byte TRUE = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte STRING = 5;
+	private static final byte ARRAY = 6;
+	private static final byte OBJECT = 7;
+
+	private final DataOutputStream out;
+
+	private final Gson gson = new Gson();
+
+	private final Map<String, Integer> stringIds = new HashMap<>();
+
+	@Value
+	public static class Record {
+		/**
+		 * Position in the file, to read the record again with {@link Reader#read}.
+		 */
+		long offset;
+		List<String> keys;
+		JsonElement value;
+	}
+
+	/**
+	 * Opens the store for appending, creating it if needed, and drops a torn record left at its end.
+	 */
+	public ResultStore(Path file) throws IOException {
+		if (Files.exists(file) && Files.size(file) > 0) {
+			long end;
+			try (var reader = new Reader(file)) {
+				while (reader.next(false) != null) {
+					continue;
+				}
+				end = reader.position;
+				for (int i = 0; i < reader.strings.size(); i++) {
+					stringIds.put(reader.strings.get(i), i);
+				}
+			}
+			try (var channel = FileChannel.open(file, WRITE)) {
+				channel.truncate(end);
+			}
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, APPEND)));
+		} else {
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, CREATE, WRITE,
+					TRUNCATE_EXISTING)));
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			out.flush();
+		}
+	}
+
+	public static String pathKey(List<String> paths) {
+		return String.join(",", paths);
+	}
+
+	public static String mutationKey(List<String> paths, List<String> mutation) {
+		return pathKey(paths) + '=' + String.join(",", mutation);
+	}
+
+	@Override
+	public synchronized void write(Object src) throws IOException {
+		var value = gson.toJsonTree(src);
+		var newStrings = new ArrayList<String>();
+		var body = new ByteArrayOutputStream();
+		var data = new DataOutputStream(body);
+		data.writeByte(DATA_RECORD);
+		try {
+			var keys = getKeys(value);
+			writeVarInt(data, keys.size());
+			for (var k : keys) {
+				writeVarInt(data, intern(k, newStrings));
+			}
+			encode(data, value, newStrings);
+		} catch (RuntimeException e) {
+			newStrings.forEach(stringIds::remove);
+			throw e;
+		}
+
+		for (var s : newStrings) {
+			var bytes = s.getBytes(StandardCharsets.UTF_8);
+			var string = new byte[bytes.length + 1];
+			string[0] = STRING_RECORD;
+			System.arraycopy(bytes, 0, string, 1, bytes.length);
+			writeRecord(string);
+		}
+		writeRecord(body.toByteArray());
+		out.flush();
+	}
+
+	/**
+	 * Nothing to do, as every record is complete by itself.
+	 */
+	@Override
+	public void finish() {}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void writeRecord(byte[] body) throws IOException {
+		var crc = new CRC32();
+		crc.update(body);
+		out.writeInt(body.length);
+		out.writeInt((int) crc.getValue());
+		out.write(body);
+	}
+
+	private int intern(String s, List<String> newStrings) {
+		var id = stringIds.get(s);
+		if (id == null) {
+			id = stringIds.size();
+			stringIds.put(s, id);
+			newStrings.add(s);
+		}
+		return id;
+	}
+
+	private void encode(DataOutputStream data, JsonElement e, List<String> newStrings) throws IOException {
+		if (e == null || e.isJsonNull()) {
+			data.writeByte(NULL);
+		} else if (e.isJsonArray()) {
+			var array = e.getAsJsonArray();
+			data.writeByte(ARRAY);
+			writeVarInt(data, array.size());
+			for (var i : array) {
+				encode(data, i, newStrings);
+			}
+		} else if (e.isJsonObject()) {
+			var object = e.getAsJsonObject();
+			data.writeByte(OBJECT);
+			writeVarInt(data, object.size());
+			for (var m : object.entrySet()) {
+				writeVarInt(data, intern(m.getKey(), newStrings));
+				encode(data, m.getValue(), newStrings);
+			}
+		} else {
+			var primitive = e.getAsJsonPrimitive();
+			if (primitive.isBoolean()) {
+				data.writeByte(primitive.getAsBoolean() ? TRUE : FALSE);
+			} else if (primitive.isString()) {
+				data.writeByte(STRING);
+				writeVarInt(data, intern(primitive.getAsString(), newStrings));
+			} else {
+				var number = primitive.getAsNumber();
+				if (number instanceof Double || number instanceof Float || number instanceof BigDecimal) {
+					data.writeByte(DOUBLE);
+					data.writeDouble(number.doubleValue());
+				} else {
+					data.writeByte(LONG);
+					long l = number.longValue();
+					writeVarLong(data, (l << 1) ^ (l >> 63));
+				}
+			}
+		}
+	}
+
+	private static List<String> getKeys(JsonElement value) {
+		var keys = new ArrayList<String>();
+		if (!value.isJsonObject() || !value.getAsJsonObject().has("paths")) {
+			return keys;
+		}
+		var object = value.getAsJsonObject();
+		var paths = toStrings(object.getAsJsonArray("paths"));
+		keys.add(pathKey(paths));
+		var mutations = object.getAsJsonArray("mutations");
+		if (mutations != null) {
+			for (var m : mutations) {
+				var mutation = m.getAsJsonObject().getAsJsonArray("mutation");
+				if (mutation != null) {
+					keys.add(mutationKey(paths, toStrings(mutation)));
+				}
+			}
+		}
+		return keys;
+	}
+
+	private static List<String> toStrings(JsonArray array) {
+		var strings = new ArrayList<String>();
+		for (var e : array) {
+			strings.add(e.getAsString());
+		}
+		return strings;
+	}
+
+	private static void writeVarInt(DataOutputStream data, int value) throws IOException {
+		writeVarLong(data, value & 0xffffffffL);
+	}
+
+	private static void writeVarLong(DataOutputStream data, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			data.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		data.writeByte((int) value);
+	}
+
+	/**
+	 * Reads the records of a store in order, stopping before a torn or corrupted record.
+	 */
+	public static class Reader implements Closeable {
+		private final Path file;
+
+		private final DataInputStream in;
+
+		private final long size;
+
+		private final List<String> strings = new ArrayList<>();
+
+		private long position = HEADER_LENGTH;
+
+		public Reader(Path file) throws IOException {
+			this.file = file;
+			size = Files.size(file);
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+			var header = new byte[HEADER_LENGTH];
+			in.readFully(header);
+			if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC) || header[MAGIC.length] != VERSION) {
+				in.close();
+				throw new IOException("Not a result store: " + file);
+			}
+		}
+
+		/**
+		 * @return the next record, or null at the end
+		 */
+		public Record next() throws IOException {
+			return next(true);
+		}
+
+		/**
+		 * @param decode false to leave out the value, e.g. to only read the keys
+		 */
+		private Record next(boolean decode) throws IOException {
+			while (true) {
+				long offset = position;
+				var body = readRecord();
+				if (body == null) {
+					return null;
+				}
+				position += 8 + body.remaining();
+				if (body.get() == STRING_RECORD) {
+					strings.add(StandardCharsets.UTF_8.decode(body).toString());
+					continue;
+				}
+				var keys = readKeys(body);
+				return new Record(offset, keys, decode ? decode(body) : null);
+			}
+		}
+
+		/**
+		 * Reads the whole store without decoding the results.
+		 *
+		 * @return the offsets of the records by their keys, in order
+		 */
+		public Map<String, List<Long>> index() throws IOException {
+			var index = new LinkedHashMap<String, List<Long>>();
+			Record r;
+			while ((r = next(false)) != null) {
+				for (var k : r.keys) {
+					index.computeIfAbsent(k, x -> new ArrayList<>()).add(r.offset);
+				}
+			}
+			return index;
+		}
+
+		/**
+		 * Reads a record at an offset from {@link #index} or an earlier record, once the strings it uses are read.
+		 */
+		public Record read(long offset) throws IOException {
+			try (var channel = FileChannel.open(file, READ)) {
+				var prefix = ByteBuffer.allocate(8);
+				channel.read(prefix, offset);
+				prefix.flip();
+				var body = ByteBuffer.allocate(prefix.getInt());
+				int crc = prefix.getInt();
+				channel.read(body, offset + 8);
+				body.flip();
+				if (!isValid(body, crc) || body.get() != DATA_RECORD) {
+					throw new IOException("No record at " + offset + " in " + file);
+				}
+				return new Record(offset, readKeys(body), decode(body));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		private List<String> readKeys(ByteBuffer body) {
+			int n = readVarInt(body);
+			var keys = new ArrayList<String>(n);
+			for (int i = 0; i < n; i++) {
+				keys.add(strings.get(readVarInt(body)));
+			}
+			return keys;
+		}
+
+		private JsonElement decode(ByteBuffer body) {
+			byte type = body.get();
+			switch (type) {
+				case NULL:
+					return JsonNull.INSTANCE;
+				case FALSE:
+					return new JsonPrimitive(false);
+				case TRUE:
+					return new JsonPrimitive(true);
+				case LONG:
+					long l = readVarLong(body);
+					return new JsonPrimitive((l >>> 1) ^ -(l & 1));
+				case DOUBLE:
+					return new JsonPrimitive(body.getDouble());
+				case STRING:
+					return new JsonPrimitive(strings.get(readVarInt(body)));
+				case ARRAY:
+					int size = readVarInt(body);
+					var array = new JsonArray(size);
+					for (int i = 0; i < size; i++) {
+						array.add(decode(body));
+					}
+					return array;
+				case OBJECT:
+					int members = readVarInt(body);
+					var object = new JsonObject();
+					for (int i = 0; i < members; i++) {
+						var key = strings.get(readVarInt(body));
+						object.add(key, decode(body));
+					}
+					return object;
+				default:
+					throw new IllegalStateException("Unknown value type " + type);
+			}
+		}
+
+		/**
+		 * @return the body, or null at the end or before a torn or corrupted record
+		 */
+		private ByteBuffer readRecord() throws IOException {
+			try {
+				int length = in.readInt();
+				int crc = in.readInt();
+				if (length <= 0 || position + 8 + length > size) {
+					return null;
+				}
+				var body = new byte[length];
+				in.readFully(body);
+				var buffer = ByteBuffer.wrap(body);
+				return isValid(buffer, crc) ? buffer : null;
+			} catch (EOFException e) {
+				return null;
+			}
+		}
+
+		private static boolean isValid(ByteBuffer body, int crc) {
+			var checksum = new CRC32();
+			checksum.update(body.duplicate());
+			return (int) checksum.getValue() == crc;
+		}
+
+		private static int readVarInt(ByteBuffer body) {
+			return (int) readVarLong(body);
+		}
+
+		private static long readVarLong(ByteBuffer body) {
+			long value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = body.get();
+				value |= (long) (b & 0x7f) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package edu.purdue.dsnl.configprof.result;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Appends result records to a file, each of them durable once written.
+ */
+public interface ResultWriter extends Closeable {
+	void write(Object src) throws IOException;
+
+	/**
+	 * Marks the end of a test run, after which more records may still be appended by a resumed run.
+	 */
+	void finish() throws IOException;
+}
@@ -2,8 +2,8 @@ package edu.purdue.dsnl.configprof.rpc;
 
 import edu.purdue.dsnl.configprof.TestState;
 import edu.purdue.dsnl.configprof.adaptor.AppAdaptor;
-import edu.purdue.dsnl.configprof.mutator.AbstractMutator;
 import edu.purdue.dsnl.configprof.mutator.MutationIterator;
+import edu.purdue.dsnl.configprof.mutator.Mutator;
 import edu.purdue.dsnl.configprof.mutator.MutatorFactory;
 import io.grpc.stub.StreamObserver;
 import lombok.extern.log4j.Log4j2;
@@ -17,13 +17,13 @@ import java.util.List;
 public class BuildWorker extends BuilderGrpc.BuilderImplBase {
 	private final Path project;
 
-	private final AbstractMutator mutator;
+	private final Mutator mutator;
 
 	private final AppAdaptor appAdaptor;
 
 	public BuildWorker(String project, List<String> sources, AppAdaptor appAdaptor) throws IOException {
 		this.project = Path.of(project);
-		mutator = MutatorFactory.createMutator(TestState.getLiteralType(), sources);
+		mutator = MutatorFactory.createMutator(TestState.getLiteralType(), this.project, sources);
 		this.appAdaptor = appAdaptor;
 	}
 
@@ -38,6 +38,7 @@ public class BuildWorker extends BuilderGrpc.BuilderImplBase {
 					mutations.add(mm);
 					mm.next();
 				}
+				mutator.commit();
 				String tag = request.getTag();
 				appAdaptor.build(project, tag);
 				String path = appAdaptor.getPath(tag).toAbsolutePath().toString();
@@ -49,7 +50,7 @@ public class BuildWorker extends BuilderGrpc.BuilderImplBase {
 					m.close();
 				}
 			}
-		} catch (IOException | AppAdaptor.BuildException | AbstractMutator.InvalidPathException e) {
+		} catch (IOException | AppAdaptor.BuildException | Mutator.InvalidPathException e) {
 			log.info("Build failed", e);
 			responseObserver.onError(e);
 		}
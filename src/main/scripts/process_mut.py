@@ -20,11 +20,36 @@ def sig_left_tail(test, ref):
     return p < 0.05
 
 
+def find_ref(refs_by_device, refs_by_mileage, mut_meta, mut_val_meta, i):
+    """Reference results a mutation was compared with, on its device."""
+    if mut_val_meta.get('refResults'):
+        return mut_val_meta['refResults']
+    device = mut_val_meta.get('device')
+    if 'refMileage' in mut_val_meta:
+        ref_meta = refs_by_mileage.get((device, mut_val_meta['refMileage']))
+        if ref_meta is not None:
+            return ref_meta['results']
+    # Older results only record the index of the record
+    mileage = mut_meta.get('mileage', i)
+    refs = refs_by_device.get(device, [])
+    if not refs:
+        return None
+    ref_meta = refs[0]
+    for r in refs:
+        if r['mileage'] > mileage:
+            break
+        ref_meta = r
+    return ref_meta['results']
+
+
 def extract_res(ref_data, mut_data, stable_thresh: float = 1):
-    ref_idx = 0
-    mileage = ref_data[0]['mileage']
-    ref_grp = []
-    ref = 0
+    # Probes of adaptive reference runs only check for drift
+    ref_data = [r for r in ref_data if not r.get('probe')]
+    refs_by_device = {}
+    refs_by_mileage = {}
+    for r in ref_data:
+        refs_by_device.setdefault(r.get('device'), []).append(r)
+        refs_by_mileage[(r.get('device'), r['mileage'])] = r
 
     param_indices = []
     mut_vals = []
@@ -33,38 +58,40 @@ def extract_res(ref_data, mut_data, stable_thresh: float = 1):
 
     for i, mut_meta in enumerate(mut_data):
         path = mut_meta['paths'][0]
-        while mileage < i:
-            ref_idx += 1
-            mileage = ref_data[ref_idx]['mileage']
-        ref_meta = ref_data[ref_idx]
-        ref_grp = [sum(r.values()) for r in ref_meta['results']]
-        ref = statistics.mean(ref_grp)
-        if statistics.stdev(ref_grp) / ref > stable_thresh:
-            print(path)
-            continue
-        
+
         lowest = math.inf
         lowest_val = None
         lowest_grp = None
+        lowest_ref_grp = None
         for mut_val_meta in mut_meta['mutations']:
             if 'results' in mut_val_meta:
+                ref_results = find_ref(refs_by_device, refs_by_mileage,
+                    mut_meta, mut_val_meta, i)
+                if ref_results is None:
+                    lowest = math.inf
+                    break
+                ref_grp = [sum(r.values()) for r in ref_results]
+                if statistics.stdev(ref_grp) / statistics.mean(ref_grp) \
+                        > stable_thresh:
+                    lowest = math.inf
+                    break
                 mut_grp = [sum(r.values()) for r in mut_val_meta['results']]
                 mut = statistics.mean(mut_grp)
                 if statistics.stdev(mut_grp) / mut > stable_thresh:
                     lowest = math.inf
                     break
                 if mut < lowest:
-                    lowest, lowest_val, lowest_grp \
-                        = mut, mut_val_meta['mutation'][0], mut_grp
+                    lowest, lowest_val, lowest_grp, lowest_ref_grp \
+                        = mut, mut_val_meta['mutation'][0], mut_grp, ref_grp
         if lowest < math.inf:
             param_indices.append(i)
             mut_vals.append(lowest_val)
-            ref_grps.append(ref_grp)
+            ref_grps.append(lowest_ref_grp)
             mut_grps.append(lowest_grp)
         else:
-            # Two possibilities: all mutations crash,
+            # Three possibilities: all mutations crash, no reference,
             # or any exceeds stable threshold.
-            # Only the first will happen if STABLE_THRESHOLD = 1
+            # Only the first two will happen if STABLE_THRESHOLD = 1
             print(path)
 
     return param_indices, mut_vals, ref_grps, mut_grps